@@ -0,0 +1,76 @@
+package com.beyond.ordersystem.common.auth;
+
+import com.beyond.ordersystem.common.dto.CommonErrorDto;
+import com.beyond.ordersystem.common.service.RateLimitService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Set;
+
+// 주문 api 요청수 제한 : JwtTokenFilter 다음에 실행되어 jwt subject(email)와 route별로 제한한다.
+// 한도를 넘으면 controller까지 가지 않고 429와 Retry-After를 돌려준다.
+// @Component로 servlet filter에도 등록되므로 한 요청에 두번 차감되지 않게 OncePerRequestFilter를 쓴다.
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RateLimitFilter extends OncePerRequestFilter {
+    private static final String PATH_PREFIX = "/ordering/";
+//    OrderController의 route 목록 : 여기 없는 경로는 하나의 route로 묶어서 임의의 경로로 bucket이 늘어나지 않게 한다.
+    private static final Set<String> ROUTES = Set.of(
+            "POST /ordering/create",
+            "GET /ordering/status",
+            "GET /ordering/list",
+            "GET /ordering/export",
+            "GET /ordering/myorders",
+            "DELETE /ordering/cancel",
+            "POST /ordering/cancel");
+    private static final String UNKNOWN_ROUTE = "OTHER /ordering";
+
+    private final RateLimitService rateLimitService;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !rateLimitService.isEnabled() || !request.getRequestURI().startsWith(PATH_PREFIX);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        String subject = authentication == null ? null : authentication.getName();
+        long retryAfterSeconds = rateLimitService.tryAcquire(subject, routeOf(request));
+        if (retryAfterSeconds == 0){
+            filterChain.doFilter(request, response);
+            return;
+        }
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value()); // 429
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        CommonErrorDto dto = new CommonErrorDto(HttpStatus.TOO_MANY_REQUESTS.value(), "요청이 너무 많습니다. " + retryAfterSeconds + "초 후 다시 시도해주세요.");
+        PrintWriter printWriter = response.getWriter();
+        printWriter.write(objectMapper.writeValueAsString(dto));
+        printWriter.flush();
+    }
+
+//    route : method + 앞의 두 경로 (/ordering/cancel/3 -> DELETE /ordering/cancel), id가 달라도 같은 route로 센다.
+    private static String routeOf(HttpServletRequest request){
+        String uri = request.getRequestURI();
+        int end = uri.indexOf('/', PATH_PREFIX.length());
+        String route = request.getMethod() + " " + (end < 0 ? uri : uri.substring(0, end));
+        return ROUTES.contains(route) ? route : UNKNOWN_ROUTE;
+    }
+}
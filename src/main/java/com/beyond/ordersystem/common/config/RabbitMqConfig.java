@@ -1,17 +1,37 @@
 package com.beyond.ordersystem.common.config;
 
+import com.beyond.ordersystem.common.service.StockPartitionRouter;
+import com.beyond.ordersystem.common.service.StockRabbitMqService;
+import com.beyond.ordersystem.common.service.StockRetryService;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.BatchMessageListener;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.FanoutExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.listener.SimpleRabbitListenerEndpoint;
 import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 public class RabbitMqConfig {
 
+    public static final String STOCK_PARTITION_LISTENER_PREFIX = "stockPartitionListener-";
+
     @Value("${spring.rabbitmq.host}")
     private String host;
     @Value("${spring.rabbitmq.port}")
@@ -22,13 +42,87 @@ public class RabbitMqConfig {
     private String password;
     @Value("${spring.rabbitmq.virtual-host}")
     private String virtualHost;
+//    재고반영 소비자 batch : 최대 batch-size건을 모으거나 max-wait-millis가 지나면 한번에 처리
+    @Value("${stock.consumer.batch-size:200}")
+    private int stockBatchSize;
+    @Value("${stock.consumer.max-wait-millis:100}")
+    private long stockBatchMaxWaitMillis;
+//    재고반영 소비자를 virtual thread로 실행할지 여부
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+//    재고반영 재시도 : 단계 수와 첫 단계 대기시간 (단계마다 2배)
+    @Value("${stock.retry.tiers:4}")
+    private int stockRetryTiers;
+    @Value("${stock.retry.initial-delay-millis:1000}")
+    private long stockRetryInitialDelayMillis;
 
 //    Spring @Bean 생성을 통해 rabbitMQ에 자동으로 아래 변수명으로 Queue가 생성된다.
+//    partition queue 도입 전의 queue : 남아있는 메시지를 처리하기 위해 유지
     @Bean
     public Queue stockQueue(){
         return new Queue("stockDecreaseQueue", true);
     }
 
+//    재고 반영 partition queue (stockDecreaseQueue.0 ~ K-1)
+    @Bean
+    public Declarables stockPartitionQueues(StockPartitionRouter stockPartitionRouter){
+        List<Queue> queues = new ArrayList<>();
+        for (int i = 0; i < stockPartitionRouter.getPartitionCount(); i++){
+            queues.add(stockPartitionQueue(i));
+        }
+        return new Declarables(queues);
+    }
+
+//    여러 서버가 같은 queue를 구독해도 한 소비자만 메시지를 받도록 하여(single active consumer) 상품별 순서를 유지한다.
+    public static Queue stockPartitionQueue(int partition){
+        return QueueBuilder.durable(StockPartitionRouter.queueName(partition))
+                .singleActiveConsumer()
+                .build();
+    }
+
+//    재시도 단계별 exchange -> queue (TTL : initial-delay * 2^(단계-1))
+//    TTL이 지난 메시지는 기본 exchange로 반환 queue(stockRetryReturnQueue)에 dead letter 되고, StockRetryService가 현재 K 기준 partition queue로 다시 보낸다.
+//    원래 queue 이름으로 바로 돌려보내면 재시도를 기다리는 사이에 재분배로 정리된 queue로 가서 broker가 버린다.
+//    단계마다 TTL이 같은 queue를 따로 두어야 queue 앞쪽 메시지의 만료를 기다리느라 뒤 메시지가 늦어지지 않는다.
+    @Bean
+    public Declarables stockRetryQueues(){
+        List<Declarable> declarables = new ArrayList<>();
+        for (int tier = 1; tier <= stockRetryTiers; tier++){
+            FanoutExchange exchange = new FanoutExchange(StockRetryService.retryExchange(tier), true, false);
+            Queue queue = QueueBuilder.durable(StockRetryService.retryQueue(tier))
+                    .ttl((int) Math.min(Integer.MAX_VALUE, stockRetryInitialDelayMillis << (tier - 1)))
+                    .deadLetterExchange("")
+                    .deadLetterRoutingKey(StockRetryService.RETURN_QUEUE)
+                    .build();
+            declarables.add(exchange);
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange));
+        }
+        declarables.add(new Queue(StockRetryService.RETURN_QUEUE, true));
+        declarables.add(new Queue(StockRetryService.DEAD_LETTER_QUEUE, true));
+        return new Declarables(declarables);
+    }
+
+//    partition마다 소비자 1개 (partition 재분배시 StockPartitionService가 같은 방식으로 추가/제거)
+    @Bean
+    public RabbitListenerConfigurer stockPartitionListenerConfigurer(StockPartitionRouter stockPartitionRouter, StockRabbitMqService stockRabbitMqService,
+                                                                     @Qualifier("stockBatchContainerFactory") SimpleRabbitListenerContainerFactory stockBatchContainerFactory){
+        return registrar -> {
+            for (int i = 0; i < stockPartitionRouter.getPartitionCount(); i++){
+                registrar.registerEndpoint(stockPartitionEndpoint(i, stockRabbitMqService), stockBatchContainerFactory);
+            }
+        };
+    }
+
+    public static SimpleRabbitListenerEndpoint stockPartitionEndpoint(int partition, StockRabbitMqService stockRabbitMqService){
+        SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+        endpoint.setId(STOCK_PARTITION_LISTENER_PREFIX + partition);
+        endpoint.setQueueNames(StockPartitionRouter.queueName(partition));
+        endpoint.setConcurrency("1");
+        endpoint.setMessageListener((BatchMessageListener) stockRabbitMqService::subscribe);
+        return endpoint;
+    }
+
     @Bean
     public ConnectionFactory connectionFactory(){
         CachingConnectionFactory connectionFactory = new CachingConnectionFactory();
@@ -37,6 +131,8 @@ public class RabbitMqConfig {
         connectionFactory.setUsername(username);
         connectionFactory.setPassword(password);
         connectionFactory.setVirtualHost(virtualHost);
+//        재고 반영 메시지는 broker confirm을 비동기로 받아서 유실여부를 확인한다. (StockEventPublisher)
+        connectionFactory.setPublisherConfirmType(CachingConnectionFactory.ConfirmType.CORRELATED);
         return connectionFactory;
     }
 
@@ -46,4 +142,23 @@ public class RabbitMqConfig {
         rabbitTemplate.setMessageConverter(new Jackson2JsonMessageConverter());
         return rabbitTemplate;
     }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory stockBatchContainerFactory(ConnectionFactory connectionFactory){
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(stockBatchSize);
+        factory.setBatchReceiveTimeout(stockBatchMaxWaitMillis);
+//        batch를 채울 수 있도록 prefetch는 batch 크기 이상이어야 한다.
+        factory.setPrefetchCount(stockBatchSize);
+//        listener가 정상 리턴한 뒤에 batch 전체를 ack
+        factory.setAcknowledgeMode(AcknowledgeMode.AUTO);
+//        직접 만든 factory라 spring.threads.virtual.enabled가 자동 적용되지 않으므로 소비자 스레드를 직접 지정
+        if (virtualThreads){
+            factory.setTaskExecutor(new VirtualThreadTaskExecutor("stock-consumer-"));
+        }
+        return factory;
+    }
 }
@@ -5,6 +5,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
@@ -24,6 +25,9 @@ public class RedisConfig {
     @Value("${spring.redis.port}")
     private int port;
 
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
 
 //    Qualifier : 같은 Bean 객체가 여러개 있을 경우 Bean객체를 구분하기 위한 어노테이션이다
 //    위와 같은 어노테이션이 필요한 이유는 configuration.setDatabase(0);의 연결된 db가 여러개 있을 수 있을 경우 구분자가 없으면 구분을 못하기 때문이다.
@@ -80,6 +84,9 @@ public class RedisConfig {
         RedisTemplate<String, String> redisTemplate = new RedisTemplate<>();
         redisTemplate.setKeySerializer(new StringRedisSerializer());
         redisTemplate.setValueSerializer(new StringRedisSerializer());
+//        재고 집계용 hash(stock-pending 등)는 lua script에서도 문자열로 읽고 쓰므로 hash도 문자열로 직렬화
+        redisTemplate.setHashKeySerializer(new StringRedisSerializer());
+        redisTemplate.setHashValueSerializer(new StringRedisSerializer());
         redisTemplate.setConnectionFactory(stockConnectionFactory);
         return redisTemplate;
     }
@@ -104,6 +111,10 @@ public class RedisConfig {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(redisConnectionFactory());
         container.addMessageListener(messageListenerAdaptor, new PatternTopic("order-channel"));
+//        수신한 알림의 sse 전송(네트워크 대기)을 virtual thread에서 처리
+        if (virtualThreads){
+            container.setTaskExecutor(new VirtualThreadTaskExecutor("sse-listener-"));
+        }
 //        만약에 여러 채널을 구독해야하는 경우 여러개의 PatternTopic을 add하거나 별도의 Bean객체 생성.
         return container;
     }
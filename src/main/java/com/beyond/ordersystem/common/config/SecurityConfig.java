@@ -3,6 +3,7 @@ package com.beyond.ordersystem.common.config;
 import com.beyond.ordersystem.common.auth.JwtAuthenticationHandler;
 import com.beyond.ordersystem.common.auth.JwtAuthorizationHandler;
 import com.beyond.ordersystem.common.auth.JwtTokenFilter;
+import com.beyond.ordersystem.common.auth.RateLimitFilter;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -26,6 +27,7 @@ import java.util.Arrays;
 @EnableMethodSecurity
 public class SecurityConfig {
     private final JwtTokenFilter jwtTokenFilter;
+    private final RateLimitFilter rateLimitFilter;
     private final JwtAuthenticationHandler jwtAuthenticationHandler;
     private final JwtAuthorizationHandler jwtAuthorizationHandler;
     @Bean
@@ -36,6 +38,8 @@ public class SecurityConfig {
                 .httpBasic(AbstractHttpConfigurer::disable)
                 .sessionManagement(s->s.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .addFilterBefore(jwtTokenFilter, UsernamePasswordAuthenticationFilter.class)
+//                요청수 제한은 jwt subject를 알아야 하므로 jwt filter 다음에 실행
+                .addFilterAfter(rateLimitFilter, JwtTokenFilter.class)
                 .exceptionHandling(e->
                         e.authenticationEntryPoint(jwtAuthenticationHandler) // 401의 경우
                                 .accessDeniedHandler(jwtAuthorizationHandler) // 403의 경우
@@ -0,0 +1,35 @@
+package com.beyond.ordersystem.common.domain;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+// 트랜잭션 outbox : 주문과 같은 트랜잭션에서 발행할 메시지를 저장하고, OutboxRelay가 commit된 행만 읽어서 발행한다.
+// sentTime이 null이면 아직 발행(confirm)되지 않은 메시지
+// 발행에 실패하면 attempts를 올리고 nextAttemptTime까지 미루며, 최대 시도 횟수를 넘기면 failedTime을 기록하고 더 이상 중계하지 않는다.
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@ToString
+@Builder
+@Entity
+@Table(indexes = @Index(name = "idx_outbox_event_sent_time", columnList = "sentTime, id"))
+public class OutboxEvent extends BaseTimeEntity {
+//    주문마다 같은 트랜잭션에서 2건씩 저장되므로 sequence로 id를 미리 받아 주문과 함께 JDBC batch insert한다. (OrderIdSequenceInitializer)
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "outbox_event_seq_generator")
+    @SequenceGenerator(name = "outbox_event_seq_generator", sequenceName = "outbox_event_seq", allocationSize = 50)
+    private Long id;
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private OutboxEventType eventType;
+    @Lob
+    @Column(nullable = false)
+    private String payload;
+    private LocalDateTime sentTime;
+    private int attempts;
+//    null이면 바로 중계 대상
+    private LocalDateTime nextAttemptTime;
+    private LocalDateTime failedTime;
+}
@@ -0,0 +1,8 @@
+package com.beyond.ordersystem.common.domain;
+
+public enum OutboxEventType {
+//    재고 rdb 반영 메시지 (rabbitmq)
+    STOCK,
+//    주문 알림 (sse / redis pub-sub)
+    ORDER_ALERT
+}
@@ -0,0 +1,34 @@
+package com.beyond.ordersystem.common.domain;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+
+// 소비자가 반영을 끝낸 재고 line id(메시지id:상품id) : 재고 반영과 같은 트랜잭션에서 저장하여 같은 line이 다시 와도 한번만 반영한다.
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@ToString
+@Builder
+@Entity
+@Table(indexes = @Index(name = "idx_processed_message_processed_time", columnList = "processedTime"))
+public class ProcessedMessage implements Persistable<String> {
+    @Id
+    @Column(length = 100)
+    private String messageId;
+    @Column(nullable = false)
+    private LocalDateTime processedTime;
+
+    @Override
+    public String getId() {
+        return messageId;
+    }
+
+//    id를 직접 넣는 엔티티라 save시 select(merge) 없이 바로 insert 하도록 항상 새 엔티티로 본다.
+    @Override
+    public boolean isNew() {
+        return true;
+    }
+}
@@ -0,0 +1,34 @@
+package com.beyond.ordersystem.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+// keyset(cursor) 페이지 응답 : 전체 개수(count) 없이 다음 페이지 존재여부와 다음 요청에 넘길 cursor만 돌려준다.
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class CursorPageDto<T> {
+    @Builder.Default
+    private List<T> content = new ArrayList<>();
+//    다음 페이지 요청시 cursor로 넘길 값 (마지막 행의 id), 다음 페이지가 없으면 null
+    private Long nextCursor;
+    private boolean hasNext;
+
+//    rows : size + 1건까지 조회한 결과 (1건 더 있으면 다음 페이지가 있다)
+    public static <E, T> CursorPageDto<T> of(List<E> rows, int size, Function<E, Long> idGetter, Function<List<E>, List<T>> mapper){
+        boolean hasNext = rows.size() > size;
+        List<E> pageRows = hasNext ? rows.subList(0, size) : rows;
+        return CursorPageDto.<T>builder()
+                .content(mapper.apply(pageRows))
+                .nextCursor(hasNext ? idGetter.apply(pageRows.get(pageRows.size() - 1)) : null)
+                .hasNext(hasNext)
+                .build();
+    }
+}
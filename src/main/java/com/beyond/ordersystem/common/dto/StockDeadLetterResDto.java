@@ -0,0 +1,17 @@
+package com.beyond.ordersystem.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class StockDeadLetterResDto {
+//    이번 요청으로 원래 queue에 다시 넣은 메시지 수
+    private int replayed;
+//    dead letter queue에 남아있는 메시지 수
+    private long remaining;
+}
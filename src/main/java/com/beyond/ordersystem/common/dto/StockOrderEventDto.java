@@ -0,0 +1,22 @@
+package com.beyond.ordersystem.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 주문 1건의 재고 반영 메시지 (주문의 모든 상품을 한번에 담음)
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class StockOrderEventDto {
+    private Long orderingId;
+//    주문 시각 (epoch ms), 소비자 지연시간 측정용
+    private Long createdAt;
+    @Builder.Default
+    private List<StockRabbitMqDto> lines = new ArrayList<>();
+}
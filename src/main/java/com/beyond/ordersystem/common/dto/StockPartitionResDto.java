@@ -0,0 +1,23 @@
+package com.beyond.ordersystem.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class StockPartitionResDto {
+    private int partitionCount;
+//    이 서버에서 소비중인 partition 번호 (재분배로 줄어든 partition은 queue가 빌때까지 포함됨)
+    @Builder.Default
+    private List<Integer> activePartitions = new ArrayList<>();
+//    partition별 대기 메시지 수 (activePartitions 순서)
+    @Builder.Default
+    private List<Long> queueDepths = new ArrayList<>();
+}
@@ -0,0 +1,53 @@
+package com.beyond.ordersystem.common.repository;
+
+import com.beyond.ordersystem.common.domain.OutboxEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+//    발행되지 않은 메시지를 id 순서로 조회 (sentTime, id 인덱스)
+//    id는 insert 시점에 정해지고 commit 순서와 다를 수 있으므로, 마지막 id 이후가 아닌 미발행 전체에서 매번 앞부분을 읽는다.
+//    실패 처리된 메시지와 재시도 시간이 안 된 메시지는 건너뛰어 뒤의 메시지 발행을 막지 않게 한다.
+    @Query("select o from OutboxEvent o where o.sentTime is null and o.failedTime is null " +
+            "and (o.nextAttemptTime is null or o.nextAttemptTime <= :now) order by o.id asc")
+    List<OutboxEvent> findUnsent(@Param("now") LocalDateTime now, Pageable pageable);
+
+    @Query("select min(o.createdTime) from OutboxEvent o where o.sentTime is null and o.failedTime is null")
+    LocalDateTime findOldestUnsentTime();
+
+    @Query("select count(o) from OutboxEvent o where o.sentTime is null and o.failedTime is not null")
+    long countFailed();
+
+//    발행 실패 기록 : 다음 시도 시간을 미룬다.
+    @Transactional
+    @Modifying
+    @Query("update OutboxEvent o set o.attempts = :attempts, o.nextAttemptTime = :nextAttemptTime where o.id = :id")
+    int markRetry(@Param("id") Long id, @Param("attempts") int attempts, @Param("nextAttemptTime") LocalDateTime nextAttemptTime);
+
+//    최대 시도 횟수를 넘긴 메시지를 실패 처리 (운영자가 원인을 고친 뒤 failedTime을 지우면 다시 중계된다.)
+    @Transactional
+    @Modifying
+    @Query("update OutboxEvent o set o.attempts = :attempts, o.failedTime = :failedTime where o.id = :id")
+    int markFailed(@Param("id") Long id, @Param("attempts") int attempts, @Param("failedTime") LocalDateTime failedTime);
+
+//    confirm된 메시지를 한번의 update로 발행완료 처리
+    @Transactional
+    @Modifying
+    @Query("update OutboxEvent o set o.sentTime = :sentTime where o.id in :ids")
+    int markSent(@Param("ids") List<Long> ids, @Param("sentTime") LocalDateTime sentTime);
+
+    @Transactional
+    @Modifying
+    @Query("delete from OutboxEvent o where o.sentTime < :before")
+    int deleteSentBefore(@Param("before") LocalDateTime before);
+}
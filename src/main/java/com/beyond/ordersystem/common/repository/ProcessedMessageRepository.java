@@ -0,0 +1,26 @@
+package com.beyond.ordersystem.common.repository;
+
+import com.beyond.ordersystem.common.domain.ProcessedMessage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ProcessedMessageRepository extends JpaRepository<ProcessedMessage, String> {
+
+//    주어진 id 중 이미 반영된 기록만 조회 (batch당 쿼리 1번), 반영시각은 재전달된 line의 pending 감소 여부 판단용
+    @Query("select p from ProcessedMessage p where p.messageId in :ids")
+    List<ProcessedMessage> findProcessed(@Param("ids") Collection<String> ids);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ProcessedMessage p where p.processedTime < :before")
+    int deleteProcessedBefore(@Param("before") LocalDateTime before);
+}
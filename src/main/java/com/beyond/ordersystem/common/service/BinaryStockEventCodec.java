@@ -0,0 +1,65 @@
+package com.beyond.ordersystem.common.service;
+
+import com.beyond.ordersystem.common.dto.StockOrderEventDto;
+import com.beyond.ordersystem.common.dto.StockRabbitMqDto;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// 고정길이 binary 형식 (big endian)
+// [버전 1byte][주문id 8byte][생성시각 epoch ms 8byte][상품수 4byte] + 상품마다 [상품id 8byte][수량 4byte]
+// 문자열 변환 없이 byte[]에서 바로 읽고, 상품 1개 주문이 33byte이다. (json은 약 80byte)
+@Component
+public class BinaryStockEventCodec implements StockEventCodec {
+
+    public static final String CONTENT_TYPE = "application/x-stock-event";
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 1 + 8 + 8 + 4;
+    private static final int LINE_SIZE = 8 + 4;
+
+    @Override
+    public String contentType(){
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(StockOrderEventDto event){
+        List<StockRabbitMqDto> lines = event.getLines();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + LINE_SIZE * lines.size());
+        buffer.put(VERSION);
+        buffer.putLong(event.getOrderingId() == null ? 0 : event.getOrderingId());
+        buffer.putLong(event.getCreatedAt() == null ? 0 : event.getCreatedAt());
+        buffer.putInt(lines.size());
+        for (StockRabbitMqDto line : lines){
+            buffer.putLong(line.getProductId());
+            buffer.putInt(line.getProductCount());
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public StockOrderEventDto decode(byte[] body){
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        if (body.length < HEADER_SIZE || buffer.get() != VERSION){
+            throw new IllegalArgumentException("재고 반영 메시지 형식이 올바르지 않습니다.");
+        }
+        long orderingId = buffer.getLong();
+        long createdAt = buffer.getLong();
+        int count = buffer.getInt();
+//        할당 전에 남은 길이로 상품수를 확인한다. (HEADER_SIZE + LINE_SIZE * count 는 int overflow가 날 수 있음)
+        if (count < 0 || count > (body.length - HEADER_SIZE) / LINE_SIZE || body.length != HEADER_SIZE + LINE_SIZE * count){
+            throw new IllegalArgumentException("재고 반영 메시지 길이가 올바르지 않습니다.");
+        }
+        List<StockRabbitMqDto> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            lines.add(new StockRabbitMqDto(buffer.getLong(), buffer.getInt()));
+        }
+        return StockOrderEventDto.builder()
+                .orderingId(orderingId == 0 ? null : orderingId)
+                .createdAt(createdAt == 0 ? null : createdAt)
+                .lines(lines)
+                .build();
+    }
+}
@@ -0,0 +1,49 @@
+package com.beyond.ordersystem.common.service;
+
+import com.beyond.ordersystem.common.dto.StockOrderEventDto;
+import com.beyond.ordersystem.common.dto.StockRabbitMqDto;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+
+// json 형식 (기존 Jackson2JsonMessageConverter로 보내던 메시지와 호환)
+@Component
+@RequiredArgsConstructor
+public class JsonStockEventCodec implements StockEventCodec {
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public String contentType(){
+        return MessageProperties.CONTENT_TYPE_JSON;
+    }
+
+    @Override
+    public byte[] encode(StockOrderEventDto event){
+        try {
+            return objectMapper.writeValueAsBytes(event);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("재고 반영 메시지 변환 실패 : " + e.getMessage());
+        }
+    }
+
+//    주문단위 메시지(lines)와 이전 형식의 상품단위 메시지를 모두 읽는다.
+    @Override
+    public StockOrderEventDto decode(byte[] body){
+        try {
+            JsonNode node = objectMapper.readTree(body);
+            if (node.has("lines")){
+                return objectMapper.treeToValue(node, StockOrderEventDto.class);
+            }
+            return StockOrderEventDto.builder()
+                    .lines(List.of(objectMapper.treeToValue(node, StockRabbitMqDto.class)))
+                    .build();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("재고 반영 메시지 해석 실패 : " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.beyond.ordersystem.common.service;
+
+import com.beyond.ordersystem.common.domain.OutboxEvent;
+import com.beyond.ordersystem.common.dto.SseMessageDto;
+import com.beyond.ordersystem.common.dto.StockOrderEventDto;
+import com.beyond.ordersystem.common.repository.OutboxEventRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// outbox 중계 : commit된 outbox 메시지를 batch로 읽어서 발행하고, confirm된 메시지를 모아서 한번에 발행완료 처리한다.
+// 중복 발행을 줄이기 위해 redis lock을 가진 서버 한대만 중계한다. (lock은 중계할때마다 연장)
+// 발행 후 발행완료 처리 전에 서버가 죽으면 같은 메시지가 다시 발행될 수 있다. (at-least-once)
+// 발행에 실패한 메시지는 시도 횟수에 따라 재시도 간격을 늘리고(지수 backoff), 최대 시도 횟수를 넘기면 실패 처리해서 더 이상 중계하지 않는다.
+// 재고 partition 재분배중(StockPartitionRouter 재분배 token)에는 중계를 멈추고, 발행한 메시지가 모두 confirm되면 재분배 서버에 알린다.
+@Slf4j
+@Component
+public class OutboxRelay {
+
+    static final String LOCK_KEY = "outbox-relay-lock";
+//    lock이 없으면 잡고, 내가 가진 lock이면 만료시간을 연장한다.
+    private static final RedisScript<Long> LOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 end\n" +
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then\n" +
+            "  redis.call('PEXPIRE', KEYS[1], ARGV[2])\n" +
+            "  return 1\n" +
+            "end\n" +
+            "return 0", Long.class);
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final StockEventPublisher stockEventPublisher;
+    private final StockPartitionRouter stockPartitionRouter;
+    private final SseAlarmService sseAlarmService;
+    private final ObjectMapper objectMapper;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final String token = UUID.randomUUID().toString();
+
+//    발행했지만 아직 confirm되지 않은 outbox id
+    private final Set<Long> inFlightIds = ConcurrentHashMap.newKeySet();
+//    confirm되어 발행완료 처리를 기다리는 outbox id
+    private final ConcurrentLinkedQueue<Long> confirmedIds = new ConcurrentLinkedQueue<>();
+//    발행 실패해서 재시도/실패 처리를 기다리는 메시지 (confirm 콜백 스레드에서 db에 쓰지 않도록 중계 스레드에서 처리)
+    private final ConcurrentLinkedQueue<FailedAttempt> failedAttempts = new ConcurrentLinkedQueue<>();
+
+    private final Counter sentCounter;
+    private final Counter failedCounter;
+    private final Counter deadCounter;
+    private final Timer lagTimer;
+    private final AtomicLong oldestUnsentAgeMillis = new AtomicLong();
+    private final AtomicLong deadCount = new AtomicLong();
+    private volatile long lastLagCheckAt;
+
+    @Value("${outbox.relay.enabled:true}")
+    private boolean enabled;
+    @Value("${outbox.relay.batch-size:200}")
+    private int batchSize;
+    @Value("${outbox.relay.batches-per-run:10}")
+    private int batchesPerRun;
+    @Value("${outbox.relay.lock-ttl-millis:10000}")
+    private long lockTtlMillis;
+    @Value("${outbox.relay.lag-check-millis:5000}")
+    private long lagCheckMillis;
+//    broker 장애처럼 일시적인 실패로는 실패 처리되지 않도록 최대 간격까지 늘어난 뒤에도 여러번 시도한다. (기본값 : 약 1시간)
+    @Value("${outbox.relay.max-attempts:20}")
+    private int maxAttempts;
+    @Value("${outbox.relay.retry-initial-delay-millis:1000}")
+    private long retryInitialDelayMillis;
+    @Value("${outbox.relay.retry-max-delay-millis:300000}")
+    private long retryMaxDelayMillis;
+    @Value("${outbox.retention-hours:24}")
+    private long retentionHours;
+
+    public OutboxRelay(OutboxEventRepository outboxEventRepository, StockEventPublisher stockEventPublisher, StockPartitionRouter stockPartitionRouter, SseAlarmService sseAlarmService,
+                       ObjectMapper objectMapper, @Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate, MeterRegistry meterRegistry) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.stockEventPublisher = stockEventPublisher;
+        this.stockPartitionRouter = stockPartitionRouter;
+        this.sseAlarmService = sseAlarmService;
+        this.objectMapper = objectMapper;
+        this.redisTemplate = redisTemplate;
+        this.sentCounter = meterRegistry.counter("outbox.relay.sent");
+        this.failedCounter = meterRegistry.counter("outbox.relay.failed");
+        this.deadCounter = meterRegistry.counter("outbox.relay.dead");
+        this.lagTimer = Timer.builder("outbox.relay.lag")
+                .description("outbox 저장부터 발행 confirm까지 걸린 시간")
+                .register(meterRegistry);
+        meterRegistry.gauge("outbox.relay.inflight", inFlightIds, Set::size);
+        meterRegistry.gauge("outbox.relay.oldest.unsent.age", oldestUnsentAgeMillis);
+        meterRegistry.gauge("outbox.relay.dead.count", deadCount);
+    }
+
+    @Scheduled(fixedDelayString = "${outbox.relay.interval-millis:100}")
+    public void relay(){
+        if (!enabled){
+            return;
+        }
+        try {
+            markConfirmed();
+            markFailedAttempts();
+            Long locked = redisTemplate.execute(LOCK_SCRIPT, List.of(LOCK_KEY), token, String.valueOf(lockTtlMillis));
+            if (locked == null || locked != 1L){
+                return;
+            }
+            String pauseToken = stockPartitionRouter.readPauseToken();
+            if (pauseToken != null){
+//                새로 발행하지 않고, 이미 발행한 메시지가 모두 confirm(또는 실패)되면 재분배를 진행하게 한다.
+                if (inFlightIds.isEmpty()){
+                    stockPartitionRouter.ackPause(pauseToken, lockTtlMillis);
+                }
+                return;
+            }
+//            재분배가 끝난 직후 바뀐 K로 발행하도록 발행 전에 다시 읽는다.
+            stockPartitionRouter.syncPartitionCount();
+            for (int i = 0; i < batchesPerRun; i++){
+                if (relayBatch() < batchSize){
+                    break;
+                }
+            }
+            markConfirmed();
+            markFailedAttempts();
+            checkLag();
+        } catch (Exception e){
+            log.error("outbox 중계 실패 : {}", e.getMessage());
+        }
+    }
+
+//    발행완료된 메시지 정리
+    @Scheduled(fixedDelayString = "${outbox.purge-interval-millis:3600000}")
+    public void purge(){
+        try {
+            int deleted = outboxEventRepository.deleteSentBefore(LocalDateTime.now().minusHours(retentionHours));
+            if (deleted > 0){
+                log.info("발행완료된 outbox 메시지 {}건 삭제", deleted);
+            }
+        } catch (Exception e){
+            log.error("outbox 정리 실패 : {}", e.getMessage());
+        }
+    }
+
+//    반환값 : 이번에 새로 발행한 메시지 수
+    private int relayBatch(){
+        List<OutboxEvent> events = outboxEventRepository.findUnsent(LocalDateTime.now(), PageRequest.of(0, batchSize + inFlightIds.size()));
+        int dispatched = 0;
+        for (OutboxEvent event : events){
+            if (dispatched >= batchSize){
+                break;
+            }
+            if (!inFlightIds.add(event.getId())){
+                continue;
+            }
+            dispatched++;
+            Long id = event.getId();
+            int attempts = event.getAttempts() + 1;
+            LocalDateTime createdTime = event.getCreatedTime();
+            dispatch(event).whenComplete((result, ex) -> {
+                if (ex == null){
+                    confirmedIds.add(id);
+                    if (createdTime != null){
+                        lagTimer.record(Duration.between(createdTime, LocalDateTime.now()));
+                    }
+                } else {
+//                    재시도 시간을 기록할때까지 inFlight로 두어 바로 다시 발행하지 않는다.
+                    failedAttempts.add(new FailedAttempt(id, attempts, ex.getMessage()));
+                    failedCounter.increment();
+                    log.warn("outbox 메시지 발행 실패 id={} attempts={} : {}", id, attempts, ex.getMessage());
+                }
+            });
+        }
+        return dispatched;
+    }
+
+    private CompletableFuture<Void> dispatch(OutboxEvent event){
+        try {
+            switch (event.getEventType()){
+                case STOCK:
+//                    outbox id를 메시지 id로 써서 다시 중계되어도 소비자가 중복을 걸러낸다.
+                    return stockEventPublisher.publish(objectMapper.readValue(event.getPayload(), StockOrderEventDto.class), "outbox-" + event.getId());
+                case ORDER_ALERT:
+                    SseMessageDto dto = objectMapper.readValue(event.getPayload(), SseMessageDto.class);
+                    sseAlarmService.publishMessage(dto.getReceiver(), dto.getSender(), dto.getOrderingId());
+                    return CompletableFuture.completedFuture(null);
+                default:
+                    return CompletableFuture.failedFuture(new IllegalArgumentException("알 수 없는 outbox 메시지 : " + event.getEventType()));
+            }
+        } catch (Exception e){
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void markConfirmed(){
+        List<Long> ids = new ArrayList<>();
+        Long id;
+        while ((id = confirmedIds.poll()) != null){
+            ids.add(id);
+        }
+        if (ids.isEmpty()){
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            for (int from = 0; from < ids.size(); from += batchSize){
+                outboxEventRepository.markSent(ids.subList(from, Math.min(ids.size(), from + batchSize)), now);
+            }
+        } catch (RuntimeException e){
+//            다음 중계때 다시 발행완료 처리
+            confirmedIds.addAll(ids);
+            throw e;
+        }
+        ids.forEach(inFlightIds::remove);
+        sentCounter.increment(ids.size());
+    }
+
+//    실패한 메시지의 다음 시도 시간을 기록하고, 최대 시도 횟수를 넘긴 메시지는 실패 처리
+    private void markFailedAttempts(){
+        FailedAttempt failed;
+        while ((failed = failedAttempts.poll()) != null){
+            LocalDateTime now = LocalDateTime.now();
+            try {
+                if (failed.attempts() >= maxAttempts){
+                    outboxEventRepository.markFailed(failed.id(), failed.attempts(), now);
+                    deadCounter.increment();
+                    log.error("outbox 메시지 실패 처리 id={} attempts={} : {}", failed.id(), failed.attempts(), failed.reason());
+                } else {
+                    outboxEventRepository.markRetry(failed.id(), failed.attempts(), now.plus(retryDelay(failed.attempts()), ChronoUnit.MILLIS));
+                }
+            } catch (RuntimeException e){
+//                다음 중계때 다시 기록
+                failedAttempts.add(failed);
+                throw e;
+            }
+            inFlightIds.remove(failed.id());
+        }
+    }
+
+//    1회 실패 후 initial, 이후 2배씩 늘려서 max까지
+    private long retryDelay(int attempts){
+        int shift = Math.min(attempts - 1, 30);
+        return Math.min(retryMaxDelayMillis, retryInitialDelayMillis << shift);
+    }
+
+    private void checkLag(){
+        long now = System.currentTimeMillis();
+        if (now - lastLagCheckAt < lagCheckMillis){
+            return;
+        }
+        lastLagCheckAt = now;
+        LocalDateTime oldest = outboxEventRepository.findOldestUnsentTime();
+        oldestUnsentAgeMillis.set(oldest == null ? 0 : Duration.between(oldest, LocalDateTime.now()).toMillis());
+        deadCount.set(outboxEventRepository.countFailed());
+    }
+
+    private record FailedAttempt(Long id, int attempts, String reason) {
+    }
+}
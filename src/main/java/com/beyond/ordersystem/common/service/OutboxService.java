@@ -0,0 +1,33 @@
+package com.beyond.ordersystem.common.service;
+
+import com.beyond.ordersystem.common.domain.OutboxEvent;
+import com.beyond.ordersystem.common.domain.OutboxEventType;
+import com.beyond.ordersystem.common.repository.OutboxEventRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@Service
+@RequiredArgsConstructor
+public class OutboxService {
+    private final OutboxEventRepository outboxEventRepository;
+    private final ObjectMapper objectMapper;
+
+//    호출한 쪽 트랜잭션 안에서만 저장 : 주문이 rollback되면 메시지도 같이 사라진다.
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void append(OutboxEventType eventType, Object payload){
+        String data;
+        try {
+            data = objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("outbox 메시지 변환 실패 : " + e.getMessage());
+        }
+        outboxEventRepository.save(OutboxEvent.builder()
+                .eventType(eventType)
+                .payload(data)
+                .build());
+    }
+}
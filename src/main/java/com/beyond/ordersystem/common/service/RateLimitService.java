@@ -0,0 +1,242 @@
+package com.beyond.ordersystem.common.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// 주문 api 요청수 제한 (token bucket)
+// 회원별(jwt subject + route)과 route 전체 bucket을 둘 다 통과해야 요청을 처리한다.
+// 요청마다 redis를 거치지 않도록 서버 메모리의 bucket에서 차감하고, 주기적으로(sync-millis) 사용량을 redis(rate-limit:{key})의 공유 bucket에 반영한 뒤
+// 공유 bucket의 남은 token으로 서버 bucket을 맞춘다. 따라서 서버 수 x 동기화 주기 동안의 사용량만큼 한도를 넘을 수 있다. (근사치)
+// 회원별 bucket은 최근 사용순으로 max-keys개만 유지하여 회원 수와 관계없이 메모리가 일정하다. (밀려난 회원은 다음 요청때 가득 찬 bucket으로 시작하고 동기화때 redis 값으로 맞춰진다)
+@Slf4j
+@Service
+public class RateLimitService {
+
+    private static final String KEY_PREFIX = "rate-limit:";
+    private static final int SEGMENT_COUNT = 16;
+//    공유 bucket 충전 후 서버 사용량 차감, 남은 token 반환 (빚은 capacity까지만 허용)
+    private static final byte[] SYNC_SCRIPT = (
+            "local t = redis.call('TIME')\n" +
+            "local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)\n" +
+            "local capacity = tonumber(ARGV[1])\n" +
+            "local b = redis.call('HMGET', KEYS[1], 'tokens', 'ts')\n" +
+            "local tokens = tonumber(b[1]) or capacity\n" +
+            "local ts = tonumber(b[2]) or now\n" +
+            "tokens = math.min(capacity, tokens + math.max(0, now - ts) * tonumber(ARGV[2]) / 1000)\n" +
+            "tokens = math.max(-capacity, tokens - tonumber(ARGV[3]))\n" +
+            "redis.call('HSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(now))\n" +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[4])\n" +
+            "return tostring(tokens)").getBytes(StandardCharsets.UTF_8);
+
+    private final RedisTemplate<String, String> redisTemplate;
+//    회원별 bucket : 한 lock에 몰리지 않도록 segment로 나눈 LRU
+    private final List<Map<String, TokenBucket>> memberSegments = new ArrayList<>(SEGMENT_COUNT);
+//    route 전체 bucket : route는 RateLimitFilter의 고정된 목록에서만 오므로 개수가 정해져 있다.
+    private final Map<String, TokenBucket> globalBuckets = new ConcurrentHashMap<>();
+//    마지막 동기화 이후 사용된 bucket
+    private final Set<String> dirtyKeys = ConcurrentHashMap.newKeySet();
+
+    private final Counter memberRejectedCounter;
+    private final Counter globalRejectedCounter;
+    private final Counter syncFailedCounter;
+
+    @Value("${ratelimit.enabled:true}")
+    private boolean enabled;
+    @Value("${ratelimit.member.capacity:20}")
+    private long memberCapacity;
+    @Value("${ratelimit.member.refill-per-second:5}")
+    private double memberRefillPerSecond;
+    @Value("${ratelimit.global.capacity:2000}")
+    private long globalCapacity;
+    @Value("${ratelimit.global.refill-per-second:1000}")
+    private double globalRefillPerSecond;
+    @Value("${ratelimit.sync-batch-size:500}")
+    private int syncBatchSize;
+
+    public RateLimitService(@Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate, MeterRegistry meterRegistry,
+                            @Value("${ratelimit.max-keys:100000}") int maxKeys) {
+        this.redisTemplate = redisTemplate;
+        int segmentSize = Math.max(1, maxKeys / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++){
+            memberSegments.add(Collections.synchronizedMap(new LinkedHashMap<>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+                    return size() > segmentSize;
+                }
+            }));
+        }
+        this.memberRejectedCounter = meterRegistry.counter("ratelimit.rejected", "scope", "member");
+        this.globalRejectedCounter = meterRegistry.counter("ratelimit.rejected", "scope", "global");
+        this.syncFailedCounter = meterRegistry.counter("ratelimit.sync.failed");
+        meterRegistry.gauge("ratelimit.member.buckets", memberSegments, segments -> segments.stream().mapToInt(Map::size).sum());
+    }
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+//    반환값 : 0이면 통과, 아니면 다시 시도할 수 있을때까지의 초 (Retry-After)
+//    subject가 없으면(인증 전) route 전체 한도만 적용한다.
+    public long tryAcquire(String subject, String route){
+        long now = System.nanoTime();
+        TokenBucket memberBucket = null;
+        if (subject != null){
+            String memberKey = "member:" + subject + ":" + route;
+            memberBucket = memberSegments.get(Math.floorMod(memberKey.hashCode(), SEGMENT_COUNT))
+                    .computeIfAbsent(memberKey, key -> new TokenBucket(key, memberCapacity, memberRefillPerSecond, now));
+            if (!memberBucket.tryConsume(now)){
+                memberRejectedCounter.increment();
+                return memberBucket.retryAfterSeconds();
+            }
+            dirtyKeys.add(memberKey);
+        }
+        String globalKey = "global:" + route;
+        TokenBucket globalBucket = globalBuckets.computeIfAbsent(globalKey, key -> new TokenBucket(key, globalCapacity, globalRefillPerSecond, now));
+        if (!globalBucket.tryConsume(now)){
+//            회원 한도를 억울하게 깎지 않도록 되돌린다.
+            if (memberBucket != null){
+                memberBucket.refund();
+            }
+            globalRejectedCounter.increment();
+            return globalBucket.retryAfterSeconds();
+        }
+        dirtyKeys.add(globalKey);
+        return 0;
+    }
+
+    @Scheduled(fixedDelayString = "${ratelimit.sync-millis:1000}")
+    public void sync(){
+        if (!enabled || dirtyKeys.isEmpty()){
+            return;
+        }
+        List<TokenBucket> buckets = new ArrayList<>();
+        for (String key : dirtyKeys){
+            dirtyKeys.remove(key);
+            TokenBucket bucket = key.startsWith("global:") ? globalBuckets.get(key)
+                    : memberSegments.get(Math.floorMod(key.hashCode(), SEGMENT_COUNT)).get(key);
+//            이미 밀려난 bucket은 버린다.
+            if (bucket != null){
+                buckets.add(bucket);
+            }
+        }
+        for (int from = 0; from < buckets.size(); from += syncBatchSize){
+            syncBatch(buckets.subList(from, Math.min(buckets.size(), from + syncBatchSize)));
+        }
+    }
+
+//    bucket 묶음의 사용량을 pipeline 1회로 redis에 반영
+    private void syncBatch(List<TokenBucket> buckets){
+        long[] consumed = new long[buckets.size()];
+        for (int i = 0; i < buckets.size(); i++){
+            consumed[i] = buckets.get(i).drainUnsynced();
+        }
+        try {
+            List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int i = 0; i < buckets.size(); i++){
+                    eval(connection, buckets.get(i), consumed[i]);
+                }
+                return null;
+            });
+            long now = System.nanoTime();
+            for (int i = 0; i < buckets.size(); i++){
+                Object result = results.get(i);
+                if (result != null){
+                    String tokens = result instanceof byte[] raw ? new String(raw, StandardCharsets.UTF_8) : result.toString();
+                    buckets.get(i).applyShared(Double.parseDouble(tokens), now);
+                }
+            }
+        } catch (Exception e){
+//            다음 동기화때 다시 반영
+            for (int i = 0; i < buckets.size(); i++){
+                buckets.get(i).restoreUnsynced(consumed[i]);
+                dirtyKeys.add(buckets.get(i).key);
+            }
+            syncFailedCounter.increment();
+            log.error("요청수 제한 동기화 실패 : {}", e.getMessage());
+        }
+    }
+
+    private static void eval(RedisConnection connection, TokenBucket bucket, long consumed){
+        long ttlMillis = (long) Math.ceil(bucket.capacity / bucket.refillPerSecond * 1000) + 60_000;
+        connection.scriptingCommands().eval(SYNC_SCRIPT, ReturnType.VALUE, 1,
+                bytes(KEY_PREFIX + bucket.key), bytes(String.valueOf(bucket.capacity)), bytes(String.valueOf(bucket.refillPerSecond)),
+                bytes(String.valueOf(consumed)), bytes(String.valueOf(ttlMillis)));
+    }
+
+    private static byte[] bytes(String value){
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+//    서버 메모리의 token bucket (짧은 계산만 하므로 synchronized 사용)
+    private static final class TokenBucket {
+        private final String key;
+        private final long capacity;
+        private final double refillPerSecond;
+        private double tokens;
+        private long refilledAt;
+//        redis에 아직 반영하지 않은 사용량
+        private long unsynced;
+
+        private TokenBucket(String key, long capacity, double refillPerSecond, long now) {
+            this.key = key;
+            this.capacity = capacity;
+            this.refillPerSecond = refillPerSecond;
+            this.tokens = capacity;
+            this.refilledAt = now;
+        }
+
+        private synchronized boolean tryConsume(long now){
+            tokens = Math.min(capacity, tokens + (now - refilledAt) / 1_000_000_000.0 * refillPerSecond);
+            refilledAt = now;
+            if (tokens < 1){
+                return false;
+            }
+            tokens -= 1;
+            unsynced++;
+            return true;
+        }
+
+        private synchronized void refund(){
+            tokens = Math.min(capacity, tokens + 1);
+            unsynced--;
+        }
+
+        private synchronized long retryAfterSeconds(){
+            return Math.max(1, (long) Math.ceil((1 - tokens) / refillPerSecond));
+        }
+
+        private synchronized long drainUnsynced(){
+            long drained = unsynced;
+            unsynced = 0;
+            return drained;
+        }
+
+        private synchronized void restoreUnsynced(long drained){
+            unsynced += drained;
+        }
+
+//        공유 bucket의 남은 token에서, 동기화하는 사이에 이 서버가 더 쓴 만큼을 뺀다.
+        private synchronized void applyShared(double sharedTokens, long now){
+            tokens = Math.min(capacity, sharedTokens - unsynced);
+            refilledAt = now;
+        }
+    }
+}
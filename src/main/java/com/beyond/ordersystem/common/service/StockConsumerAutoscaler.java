@@ -0,0 +1,278 @@
+package com.beyond.ordersystem.common.service;
+
+import com.beyond.ordersystem.common.config.RabbitMqConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 재고 반영 소비자 자동 조절 : 주기적으로 partition queue 적체량과 소비자 사용률(처리시간 / 경과시간)을 보고 조절한다.
+// partition queue는 single active consumer라 queue마다 소비자를 늘려도 1개만 받으므로, 병렬도는 partition 개수(K)로 조절한다.
+// - 전체 적체가 쌓이고 어느 서버든 소비자가 바쁘면 K를 2배로, 모든 queue가 비고 모든 서버가 한가하면 K를 하나씩 줄인다. (StockPartitionService.rebalance)
+// - 각 서버는 자기가 받는 partition의 최대 사용률을 redis(stock-autoscale-utilization)에 남기고, 판단은 모든 서버의 값으로 한다.
+// - 늘릴때는 발행을 멈추지 않고 바로 새 partition으로 보내고, 줄일때만 발행을 멈추고 queue를 비운다. (모든 queue가 비었을 때만 줄인다)
+// - 한 서버만 하도록 redis 키로 cooldown 동안 잠그고, 스케쥴 스레드가 아닌 전용 스레드에서 실행한다.
+// partition별 batch(=prefetch)도 적체/사용률에 따라 조절한다. prefetch는 소비자를 새로 띄울 때 적용되므로 바뀌면 컨테이너를 재시작하고, 조절 후 cooldown 동안은 유지한다.
+@Slf4j
+@Component
+public class StockConsumerAutoscaler {
+
+    private static final String UTILIZATION_KEY = "stock-autoscale-utilization";
+    private static final String PARTITION_COOLDOWN_KEY = "stock-autoscale-partition-cooldown";
+
+    private final RabbitListenerEndpointRegistry rabbitListenerEndpointRegistry;
+    private final AmqpAdmin amqpAdmin;
+    private final StockRabbitMqService stockRabbitMqService;
+    private final StockPartitionRouter stockPartitionRouter;
+    private final StockPartitionService stockPartitionService;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, ScaleState> stateMap = new ConcurrentHashMap<>();
+    private final String nodeId = UUID.randomUUID().toString();
+    private final ExecutorService rebalanceExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "stock-partition-autoscale");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+
+    @Value("${stock.autoscale.enabled:true}")
+    private boolean enabled;
+    @Value("${stock.autoscale.min-partitions:1}")
+    private int minPartitions;
+    @Value("${stock.autoscale.max-partitions:16}")
+    private int maxPartitions;
+    @Value("${stock.autoscale.partition-cooldown-millis:300000}")
+    private long partitionCooldownMillis;
+    @Value("${stock.autoscale.interval-millis:5000}")
+    private long intervalMillis;
+    @Value("${stock.consumer.batch-size:200}")
+    private int baseBatchSize;
+    @Value("${stock.autoscale.max-batch-size:1000}")
+    private int maxBatchSize;
+//    partition 하나에 이 이상 쌓여있으면 적체로 본다.
+    @Value("${stock.autoscale.backlog-depth:1000}")
+    private long backlogDepth;
+    @Value("${stock.autoscale.busy-utilization:0.8}")
+    private double busyUtilization;
+    @Value("${stock.autoscale.idle-utilization:0.2}")
+    private double idleUtilization;
+    @Value("${stock.autoscale.cooldown-millis:30000}")
+    private long cooldownMillis;
+
+    public StockConsumerAutoscaler(RabbitListenerEndpointRegistry rabbitListenerEndpointRegistry, AmqpAdmin amqpAdmin,
+                                   StockRabbitMqService stockRabbitMqService, StockPartitionRouter stockPartitionRouter,
+                                   StockPartitionService stockPartitionService,
+                                   @Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate, MeterRegistry meterRegistry) {
+        this.rabbitListenerEndpointRegistry = rabbitListenerEndpointRegistry;
+        this.amqpAdmin = amqpAdmin;
+        this.stockRabbitMqService = stockRabbitMqService;
+        this.stockPartitionRouter = stockPartitionRouter;
+        this.stockPartitionService = stockPartitionService;
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        rebalanceExecutor.shutdownNow();
+    }
+
+    @Scheduled(fixedDelayString = "${stock.autoscale.interval-millis:5000}")
+    public void autoscale(){
+        if (!enabled){
+            return;
+        }
+        Set<String> listenerIds = new HashSet<>();
+        long totalDepth = 0;
+        double maxUtilization = 0;
+        for (String listenerId : rabbitListenerEndpointRegistry.getListenerContainerIds()){
+            if (!listenerId.startsWith(RabbitMqConfig.STOCK_PARTITION_LISTENER_PREFIX)){
+                continue;
+            }
+            MessageListenerContainer container = rabbitListenerEndpointRegistry.getListenerContainer(listenerId);
+            if (!(container instanceof SimpleMessageListenerContainer simpleContainer) || !container.isRunning()){
+                continue;
+            }
+            listenerIds.add(listenerId);
+            try {
+                ScaleState state = scale(listenerId, simpleContainer);
+                totalDepth += state.depth;
+                maxUtilization = Math.max(maxUtilization, state.utilization);
+            } catch (Exception e){
+                log.error("재고 소비자 자동조절 실패 {} : {}", listenerId, e.getMessage());
+            }
+        }
+//        재분배로 정리된 partition의 지표 제거
+        stateMap.entrySet().removeIf(entry -> {
+            if (listenerIds.contains(entry.getKey())){
+                return false;
+            }
+            entry.getValue().meters.forEach(meterRegistry::remove);
+            return true;
+        });
+        try {
+            scalePartitions(totalDepth, maxUtilization);
+        } catch (Exception e){
+            log.error("재고 partition 자동조절 실패 : {}", e.getMessage());
+        }
+    }
+
+//    partition별 batch 크기 조절
+    private ScaleState scale(String listenerId, SimpleMessageListenerContainer container){
+        ScaleState state = stateMap.get(listenerId);
+        if (state == null || state.container != container){
+            if (state != null){
+                state.meters.forEach(meterRegistry::remove);
+            }
+            state = register(listenerId, container);
+            stateMap.put(listenerId, state);
+        }
+        long now = System.nanoTime();
+        long busyNanos = stockRabbitMqService.getBusyNanos(state.queue);
+        long elapsedNanos = now - state.lastCheckedAt;
+        state.utilization = elapsedNanos <= 0 ? 0 : Math.min(1.0, (busyNanos - state.lastBusyNanos) / (double) elapsedNanos);
+        state.lastBusyNanos = busyNanos;
+        state.lastCheckedAt = now;
+        QueueInformation info = amqpAdmin.getQueueInfo(state.queue);
+        state.depth = info == null ? 0 : info.getMessageCount();
+
+        if (now - state.lastScaledAt < TimeUnit.MILLISECONDS.toNanos(cooldownMillis)){
+            return state;
+        }
+        int batchSize = state.batchSize;
+        if (state.depth > backlogDepth && state.utilization >= busyUtilization){
+            batchSize = Math.min(maxBatchSize, batchSize * 2);
+        } else if (state.depth == 0 && state.utilization < idleUtilization){
+            batchSize = Math.max(baseBatchSize, batchSize / 2);
+        }
+        if (batchSize == state.batchSize){
+            return state;
+        }
+        String direction = batchSize > state.batchSize ? "up" : "down";
+        log.info("재고 소비자 조절 {} : batch {} -> {} (적체 {}, 사용률 {})",
+                listenerId, state.batchSize, batchSize, state.depth, String.format("%.2f", state.utilization));
+        container.setBatchSize(batchSize);
+        container.setPrefetchCount(batchSize);
+        state.batchSize = batchSize;
+//        처리중인 batch가 끝난 뒤 멈추고, ack하지 않은 prefetch 메시지는 queue로 돌아간다.
+        container.stop();
+        container.start();
+        state.lastScaledAt = now;
+        meterRegistry.counter("stock.consumer.scale", "listener", listenerId, "direction", direction).increment();
+        return state;
+    }
+
+//    모든 서버의 사용률과 전체 적체량으로 partition 개수 조절
+    private void scalePartitions(long totalDepth, double localUtilization){
+        long now = System.currentTimeMillis();
+        redisTemplate.opsForHash().put(UTILIZATION_KEY, nodeId, localUtilization + ":" + now);
+        double clusterUtilization = 0;
+        for (Map.Entry<Object, Object> entry : redisTemplate.opsForHash().entries(UTILIZATION_KEY).entrySet()){
+            String[] value = ((String) entry.getValue()).split(":");
+//            종료된 서버의 오래된 값은 정리
+            if (now - Long.parseLong(value[1]) > intervalMillis * 3){
+                redisTemplate.opsForHash().delete(UTILIZATION_KEY, entry.getKey());
+                continue;
+            }
+            clusterUtilization = Math.max(clusterUtilization, Double.parseDouble(value[0]));
+        }
+
+        int partitionCount = stockPartitionRouter.getPartitionCount();
+        int target = partitionCount;
+        if (totalDepth > backlogDepth * partitionCount && clusterUtilization >= busyUtilization){
+            target = Math.min(maxPartitions, partitionCount * 2);
+        } else if (totalDepth == 0 && clusterUtilization < idleUtilization){
+            target = Math.max(minPartitions, partitionCount - 1);
+        }
+        if (target == partitionCount || rebalancing.get()){
+            return;
+        }
+//        cooldown 동안 한 서버만 재분배
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(PARTITION_COOLDOWN_KEY, nodeId, Duration.ofMillis(partitionCooldownMillis)))){
+            return;
+        }
+        String direction = target > partitionCount ? "up" : "down";
+        log.info("재고 partition 자동조절 {} -> {} (전체 적체 {}, 최대 사용률 {})", partitionCount, target, totalDepth, String.format("%.2f", clusterUtilization));
+        int partitions = target;
+        rebalancing.set(true);
+        try {
+            rebalanceExecutor.execute(() -> {
+                try {
+                    stockPartitionService.rebalance(partitions);
+                    meterRegistry.counter("stock.partition.scale", "direction", direction).increment();
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                } catch (Exception e){
+//                    적체가 커서 제한시간 안에 비우지 못한 경우 등 : cooldown 뒤에 다시 판단
+                    log.error("재고 partition 자동조절 실패 : {}", e.getMessage());
+                } finally {
+                    rebalancing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e){
+            rebalancing.set(false);
+        }
+    }
+
+    private ScaleState register(String listenerId, SimpleMessageListenerContainer container){
+        ScaleState state = new ScaleState(container, container.getQueueNames()[0], baseBatchSize);
+        state.lastBusyNanos = stockRabbitMqService.getBusyNanos(state.queue);
+        state.lastCheckedAt = System.nanoTime();
+        state.meters.add(Gauge.builder("stock.consumer.batch.size", state, s -> s.batchSize)
+                .tag("listener", listenerId).register(meterRegistry));
+        state.meters.add(Gauge.builder("stock.consumer.utilization", state, s -> s.utilization)
+                .tag("listener", listenerId).register(meterRegistry));
+        state.meters.add(Gauge.builder("stock.consumer.queue.depth", state, s -> s.depth)
+                .tag("listener", listenerId).register(meterRegistry));
+        for (String direction : List.of("up", "down")){
+            state.meters.add(Counter.builder("stock.consumer.scale")
+                    .tag("listener", listenerId).tag("direction", direction).register(meterRegistry));
+        }
+        return state;
+    }
+
+    private static class ScaleState {
+        final SimpleMessageListenerContainer container;
+        final String queue;
+        final List<Meter> meters = new ArrayList<>();
+        volatile int batchSize;
+        volatile double utilization;
+        volatile long depth;
+        long lastBusyNanos;
+        long lastCheckedAt;
+        long lastScaledAt;
+
+        ScaleState(SimpleMessageListenerContainer container, String queue, int batchSize) {
+            this.container = container;
+            this.queue = queue;
+            this.batchSize = batchSize;
+        }
+    }
+}
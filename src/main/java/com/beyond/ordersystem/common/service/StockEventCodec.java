@@ -0,0 +1,13 @@
+package com.beyond.ordersystem.common.service;
+
+import com.beyond.ordersystem.common.dto.StockOrderEventDto;
+
+// 재고 반영 메시지 변환기 : 메시지의 content-type 헤더로 구현을 고른다. (StockEventCodecs)
+public interface StockEventCodec {
+
+    String contentType();
+
+    byte[] encode(StockOrderEventDto event);
+
+    StockOrderEventDto decode(byte[] body);
+}
@@ -0,0 +1,44 @@
+package com.beyond.ordersystem.common.service;
+
+import com.beyond.ordersystem.common.dto.StockOrderEventDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// 재고 반영 메시지 변환기 선택
+// 발행은 stock.codec 설정(json/binary)으로, 수신은 메시지의 content-type으로 고르므로 배포 중에는 두 형식이 섞여 있어도 된다.
+// 모든 소비자가 binary를 읽을 수 있게 배포된 뒤에 stock.codec=binary 로 바꾼다.
+@Slf4j
+@Component
+public class StockEventCodecs {
+
+    private final Map<String, StockEventCodec> codecMap = new HashMap<>();
+    private final StockEventCodec encoder;
+    private final StockEventCodec defaultDecoder;
+
+    public StockEventCodecs(List<StockEventCodec> codecs, JsonStockEventCodec jsonStockEventCodec,
+                            BinaryStockEventCodec binaryStockEventCodec, @Value("${stock.codec:json}") String codecName) {
+        for (StockEventCodec codec : codecs){
+            codecMap.put(codec.contentType(), codec);
+        }
+        this.encoder = "binary".equalsIgnoreCase(codecName) ? binaryStockEventCodec : jsonStockEventCodec;
+        this.defaultDecoder = jsonStockEventCodec;
+        log.info("재고 반영 메시지 형식 : {}", encoder.contentType());
+    }
+
+    public StockEventCodec encoder(){
+        return encoder;
+    }
+
+//    content-type이 없거나 모르는 형식이면 json으로 읽는다.
+    public StockOrderEventDto decode(Message message){
+        String contentType = message.getMessageProperties().getContentType();
+        StockEventCodec codec = contentType == null ? defaultDecoder : codecMap.getOrDefault(contentType, defaultDecoder);
+        return codec.decode(message.getBody());
+    }
+}
@@ -0,0 +1,256 @@
+package com.beyond.ordersystem.common.service;
+
+import com.beyond.ordersystem.common.dto.StockOrderEventDto;
+import com.beyond.ordersystem.common.dto.StockRabbitMqDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// 재고 반영 메시지 비동기 발행기
+// 요청 스레드는 메모리 버퍼에 넣기만 하고, 발행 스레드가 여러 요청의 메시지를 모아서 하나의 channel로 연속 발행한다.
+// 메시지는 상품id 기준 partition queue로 보낸다. (StockPartitionRouter)
+// publisher confirm(CORRELATED)은 메시지별 CorrelationData로 비동기 수신하며, nack/응답없음은 재시도 버퍼로 보낸다.
+// 버퍼는 크기가 제한되어 있고 넘치면 버린다. 발행 결과는 future로 돌려주므로 호출자(OutboxRelay)가 다시 발행할 수 있다.
+@Slf4j
+@Component
+public class StockEventPublisher {
+
+    private final RabbitTemplate rabbitTemplate;
+    private final StockPartitionRouter stockPartitionRouter;
+    private final StockEventCodecs stockEventCodecs;
+    private final BlockingQueue<Pending> sendQueue;
+    private final BlockingQueue<Pending> retryQueue;
+//    confirm을 기다리는 메시지 (correlationId -> 메시지)
+    private final Map<String, Pending> unconfirmedMap = new ConcurrentHashMap<>();
+
+    private final Timer confirmTimer;
+    private final Counter nackCounter;
+    private final Counter droppedCounter;
+
+    @Value("${stock.publisher.batch-size:100}")
+    private int batchSize;
+    @Value("${stock.publisher.confirm-timeout-millis:5000}")
+    private long confirmTimeoutMillis;
+    @Value("${stock.publisher.max-attempts:5}")
+    private int maxAttempts;
+
+    private volatile boolean running;
+    private Thread worker;
+
+    public StockEventPublisher(RabbitTemplate rabbitTemplate, StockPartitionRouter stockPartitionRouter, StockEventCodecs stockEventCodecs, MeterRegistry meterRegistry,
+                               @Value("${stock.publisher.buffer-capacity:10000}") int bufferCapacity,
+                               @Value("${stock.publisher.retry-capacity:1000}") int retryCapacity) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.stockPartitionRouter = stockPartitionRouter;
+        this.stockEventCodecs = stockEventCodecs;
+        this.sendQueue = new ArrayBlockingQueue<>(bufferCapacity);
+        this.retryQueue = new ArrayBlockingQueue<>(retryCapacity);
+        this.confirmTimer = Timer.builder("stock.publisher.confirm.latency")
+                .description("재고 반영 메시지 발행부터 broker confirm까지 걸린 시간")
+                .register(meterRegistry);
+        this.nackCounter = meterRegistry.counter("stock.publisher.nack");
+        this.droppedCounter = meterRegistry.counter("stock.publisher.dropped");
+        meterRegistry.gauge("stock.publisher.buffer.size", sendQueue, BlockingQueue::size);
+        meterRegistry.gauge("stock.publisher.retry.size", retryQueue, BlockingQueue::size);
+        meterRegistry.gauge("stock.publisher.unconfirmed", unconfirmedMap, Map::size);
+    }
+
+    @PostConstruct
+    public void start(){
+        running = true;
+        worker = new Thread(this::run, "stock-event-publisher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+//    종료시 버퍼에 남은 메시지를 최대한 발행하고 멈춘다.
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        worker.join(confirmTimeoutMillis);
+        if (!sendQueue.isEmpty() || !retryQueue.isEmpty()){
+            log.error("발행하지 못한 재고 반영 메시지 {}건", sendQueue.size() + retryQueue.size());
+        }
+    }
+
+//    반환값 : broker가 메시지(나뉘었으면 전부)를 confirm하면 완료되고, 버퍼 초과나 재시도 포기로 버려지면 예외로 완료되는 future
+    public CompletableFuture<Void> publish(StockOrderEventDto event){
+        return publish(event, UUID.randomUUID().toString());
+    }
+
+//    messageId : 소비자 중복처리 방지용 id, 같은 메시지를 다시 발행할 때는 같은 id를 넘긴다.
+    public CompletableFuture<Void> publish(StockOrderEventDto event, String messageId){
+        Pending pending = new Pending(event, messageId);
+        if (!sendQueue.offer(pending)){
+            droppedCounter.increment();
+            log.error("재고 반영 메시지 버퍼 초과로 발행 실패 orderingId={}", event.getOrderingId());
+            pending.done.completeExceptionally(new IllegalStateException("재고 반영 메시지 버퍼 초과"));
+        }
+        return pending.done;
+    }
+
+    private void run(){
+        List<Pending> batch = new ArrayList<>();
+        while (running || !sendQueue.isEmpty() || !retryQueue.isEmpty()){
+            try {
+                retryQueue.drainTo(batch, batchSize);
+                if (batch.size() < batchSize){
+                    sendQueue.drainTo(batch, batchSize - batch.size());
+                }
+                if (batch.isEmpty()){
+                    Pending first = sendQueue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first != null){
+                        batch.add(first);
+                        sendQueue.drainTo(batch, batchSize - 1);
+                    }
+                }
+                if (!batch.isEmpty()){
+                    send(batch);
+                }
+                expireUnconfirmed();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e){
+                log.error("재고 반영 메시지 발행 실패 : {}", e.getMessage());
+                batch.forEach(this::retry);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+//    batch 전체를 하나의 channel에서 연속 발행하고 confirm은 기다리지 않는다.
+//    주문의 상품들이 여러 partition에 걸치면 partition별 메시지로 나누어 발행한다.
+    private void send(List<Pending> batch){
+        rabbitTemplate.invoke(operations -> {
+            for (Pending pending : batch){
+                for (Pending part : split(pending)){
+                    String correlationId = UUID.randomUUID().toString();
+                    CorrelationData correlationData = new CorrelationData(correlationId);
+                    part.attempts++;
+                    part.sentAt = System.nanoTime();
+                    unconfirmedMap.put(correlationId, part);
+                    correlationData.getFuture().whenComplete((confirm, ex) -> onConfirm(correlationId, confirm != null && confirm.isAck()));
+                    String queueName = stockPartitionRouter.queueOf(part.event.getLines().get(0).getProductId());
+                    operations.send("", queueName, toMessage(part), correlationData);
+                }
+            }
+            return null;
+        });
+    }
+
+    private Message toMessage(Pending pending){
+        StockEventCodec codec = stockEventCodecs.encoder();
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(codec.contentType());
+        properties.setDeliveryMode(MessageDeliveryMode.PERSISTENT);
+        properties.setTimestamp(new Date(pending.createdAt));
+        properties.setMessageId(pending.messageId);
+        return new Message(codec.encode(pending.event), properties);
+    }
+
+//    나뉜 메시지도 원래 메시지 id를 그대로 쓴다. 나뉘는 구성은 K에 따라 달라지므로 소비자는 (메시지id:상품id) line 단위로 중복을 거른다.
+    private List<Pending> split(Pending pending){
+        Map<Integer, List<StockRabbitMqDto>> partitionMap = new TreeMap<>();
+        for (StockRabbitMqDto line : pending.event.getLines()){
+            partitionMap.computeIfAbsent(stockPartitionRouter.partitionOf(line.getProductId()), k -> new ArrayList<>()).add(line);
+        }
+        if (partitionMap.size() <= 1){
+            return List.of(pending);
+        }
+        List<Pending> parts = new ArrayList<>();
+        for (Map.Entry<Integer, List<StockRabbitMqDto>> entry : partitionMap.entrySet()){
+            parts.add(new Pending(StockOrderEventDto.builder()
+                    .orderingId(pending.event.getOrderingId())
+                    .createdAt(pending.event.getCreatedAt())
+                    .lines(entry.getValue())
+                    .build(), pending.messageId, pending.createdAt, pending.attempts));
+        }
+//        나뉜 메시지가 모두 confirm 되어야 원래 메시지가 완료된다.
+        CompletableFuture.allOf(parts.stream().map(part -> part.done).toArray(CompletableFuture[]::new))
+                .whenComplete((result, ex) -> {
+                    if (ex == null){
+                        pending.done.complete(null);
+                    } else {
+                        pending.done.completeExceptionally(ex);
+                    }
+                });
+        return parts;
+    }
+
+    private void onConfirm(String correlationId, boolean ack){
+        Pending pending = unconfirmedMap.remove(correlationId);
+//        응답시간 초과로 이미 재시도 처리된 메시지의 늦은 confirm은 무시
+        if (pending == null){
+            return;
+        }
+        if (ack){
+            confirmTimer.record(Duration.ofNanos(System.nanoTime() - pending.sentAt));
+            pending.done.complete(null);
+            return;
+        }
+        nackCounter.increment();
+        retry(pending);
+    }
+
+    private void expireUnconfirmed(){
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMillis);
+        for (Map.Entry<String, Pending> entry : unconfirmedMap.entrySet()){
+            if (entry.getValue().sentAt < deadline && unconfirmedMap.remove(entry.getKey()) != null){
+                retry(entry.getValue());
+            }
+        }
+    }
+
+    private void retry(Pending pending){
+        if (pending.attempts >= maxAttempts || !retryQueue.offer(pending)){
+            droppedCounter.increment();
+            log.error("재고 반영 메시지 재시도 포기 orderingId={} attempts={}", pending.event.getOrderingId(), pending.attempts);
+            pending.done.completeExceptionally(new IllegalStateException("재고 반영 메시지 재시도 포기"));
+        }
+    }
+
+    private static final class Pending {
+        final StockOrderEventDto event;
+        final String messageId;
+        final long createdAt;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        volatile int attempts;
+        volatile long sentAt;
+
+        Pending(StockOrderEventDto event, String messageId){
+            this(event, messageId, event.getCreatedAt() == null ? System.currentTimeMillis() : event.getCreatedAt(), 0);
+        }
+
+        Pending(StockOrderEventDto event, String messageId, long createdAt, int attempts){
+            this.event = event;
+            this.messageId = messageId;
+            this.createdAt = createdAt;
+            this.attempts = attempts;
+        }
+    }
+}
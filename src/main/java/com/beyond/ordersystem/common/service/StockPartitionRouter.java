@@ -0,0 +1,113 @@
+package com.beyond.ordersystem.common.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+// 재고 반영 메시지의 partition 결정 : 상품id hash로 K개의 queue 중 하나를 고른다.
+// 같은 상품은 항상 같은 queue로 가므로 상품별 반영 순서가 유지되고, 상품이 다르면 여러 소비자가 병렬로 처리한다.
+// 현재 K는 redis(stock-partition-count)에 저장하여 모든 서버가 같은 값을 쓰도록 한다.
+// 재분배중에는 redis(stock-publish-pause)에 재분배 token을 두어, 어느 서버가 outbox 중계를 맡고 있든 발행을 멈추게 한다.
+// 중계 서버는 멈춘 뒤 발행한 메시지가 모두 confirm되면 stock-publish-pause-ack에 같은 token을 남긴다.
+@Slf4j
+@Component
+public class StockPartitionRouter {
+
+    public static final String QUEUE_PREFIX = "stockDecreaseQueue.";
+    public static final String PARTITION_COUNT_KEY = "stock-partition-count";
+    public static final String PAUSE_KEY = "stock-publish-pause";
+    public static final String PAUSE_ACK_KEY = "stock-publish-pause-ack";
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    @Value("${stock.partition.count:4}")
+    private int defaultCount;
+    private volatile int partitionCount;
+
+    public StockPartitionRouter(@Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @PostConstruct
+    public void init(){
+        partitionCount = defaultCount;
+        Integer saved = readSavedCount();
+        if (saved != null){
+            partitionCount = saved;
+        }
+    }
+
+    public static String queueName(int partition){
+        return QUEUE_PREFIX + partition;
+    }
+
+    public int getPartitionCount(){
+        return partitionCount;
+    }
+
+    public int partitionOf(Long productId){
+        return Math.floorMod(Long.hashCode(productId), partitionCount);
+    }
+
+    public String queueOf(Long productId){
+        return queueName(partitionOf(productId));
+    }
+
+//    redis에 저장된 K (없거나 조회 실패면 null)
+    public Integer readSavedCount(){
+        try {
+            String value = redisTemplate.opsForValue().get(PARTITION_COUNT_KEY);
+            return value == null ? null : Integer.parseInt(value);
+        } catch (Exception e){
+            log.error("재고 partition 개수 조회 실패 : {}", e.getMessage());
+            return null;
+        }
+    }
+
+//    다른 서버가 저장한 K를 읽어서 반영 (중계 서버가 발행 직전에 호출)
+    void syncPartitionCount(){
+        Integer saved = readSavedCount();
+        if (saved != null && saved != partitionCount){
+            log.info("재고 partition 개수 변경 반영 {} -> {}", partitionCount, saved);
+            partitionCount = saved;
+        }
+    }
+
+//    반환값 : 이미 다른 재분배가 진행중이면 false
+    boolean pausePublishing(String token, long ttlMillis){
+        redisTemplate.delete(PAUSE_ACK_KEY);
+        return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(PAUSE_KEY, token, Duration.ofMillis(ttlMillis)));
+    }
+
+    void resumePublishing(String token){
+        if (token.equals(redisTemplate.opsForValue().get(PAUSE_KEY))){
+            redisTemplate.delete(PAUSE_KEY);
+        }
+        redisTemplate.delete(PAUSE_ACK_KEY);
+    }
+
+//    진행중인 재분배 token (없거나 조회 실패면 null)
+    String readPauseToken(){
+        return redisTemplate.opsForValue().get(PAUSE_KEY);
+    }
+
+    void ackPause(String token, long ttlMillis){
+        redisTemplate.opsForValue().set(PAUSE_ACK_KEY, token, Duration.ofMillis(ttlMillis));
+    }
+
+    boolean isPauseAcked(String token){
+        return token.equals(redisTemplate.opsForValue().get(PAUSE_ACK_KEY));
+    }
+
+    void changePartitionCount(int count, boolean save){
+        if (save){
+            redisTemplate.opsForValue().set(PARTITION_COUNT_KEY, String.valueOf(count));
+        }
+        partitionCount = count;
+    }
+}
@@ -0,0 +1,206 @@
+package com.beyond.ordersystem.common.service;
+
+import com.beyond.ordersystem.common.config.RabbitMqConfig;
+import com.beyond.ordersystem.common.dto.StockPartitionResDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 재고 반영 partition 개수(K) 변경
+// 늘릴때 : 새 queue와 소비자를 만들고 바로 K를 바꾼다. 재고 증감은 순서와 관계없이 합계가 같으므로(rdb 상대값 update),
+//          옮겨간 상품의 이전 메시지가 기존 queue에 남아있어도 기존 소비자가 그대로 처리하며, 적체가 있어도 발행을 멈추지 않는다.
+// 줄일때 :
+// 1. redis에 재분배 token을 두어 outbox 중계 서버(어느 서버든)의 발행을 멈추고, 중계 서버가 발행한 메시지의 confirm을 마쳤다고 알릴때까지 기다린다.
+// 2. 기존 partition queue가 모두 빌때까지 기다린다. (상품이 다른 partition으로 옮겨가도 이전 메시지와 순서가 섞이지 않게)
+// 3. 새 queue와 소비자를 만들고 K를 redis에 저장한 뒤 발행을 재개한다. 중계 서버는 발행 직전에 K를 다시 읽으므로 바로 새 K로 발행한다.
+// 다른 서버는 주기적으로 K를 다시 읽어서 소비자를 맞추고, 줄어든 partition의 소비자는 queue가 빈 뒤에 정리한다.
+@Slf4j
+@Service
+public class StockPartitionService {
+
+    private final StockPartitionRouter stockPartitionRouter;
+    private final StockRabbitMqService stockRabbitMqService;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final AmqpAdmin amqpAdmin;
+    private final RabbitListenerEndpointRegistry rabbitListenerEndpointRegistry;
+    private final SimpleRabbitListenerContainerFactory stockBatchContainerFactory;
+
+//    재분배와 갱신은 broker 조회/대기를 하므로 synchronized 대신 lock 사용 (virtual thread가 carrier thread에 고정되지 않게)
+    private final ReentrantLock partitionLock = new ReentrantLock();
+
+    @Value("${stock.partition.drain-timeout-millis:60000}")
+    private long drainTimeoutMillis;
+
+    public StockPartitionService(StockPartitionRouter stockPartitionRouter, StockRabbitMqService stockRabbitMqService, @Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate,
+                                 AmqpAdmin amqpAdmin, RabbitListenerEndpointRegistry rabbitListenerEndpointRegistry,
+                                 @Qualifier("stockBatchContainerFactory") SimpleRabbitListenerContainerFactory stockBatchContainerFactory) {
+        this.stockPartitionRouter = stockPartitionRouter;
+        this.redisTemplate = redisTemplate;
+        this.stockRabbitMqService = stockRabbitMqService;
+        this.amqpAdmin = amqpAdmin;
+        this.rabbitListenerEndpointRegistry = rabbitListenerEndpointRegistry;
+        this.stockBatchContainerFactory = stockBatchContainerFactory;
+    }
+
+    public StockPartitionResDto rebalance(int partitionCount) throws InterruptedException {
+        if (partitionCount < 1){
+            throw new IllegalArgumentException("partition 개수는 1 이상이어야 합니다.");
+        }
+        partitionLock.lock();
+        try {
+            Integer saved = stockPartitionRouter.readSavedCount();
+            int oldCount = Math.max(saved == null ? 0 : saved, stockPartitionRouter.getPartitionCount());
+            if (partitionCount >= oldCount){
+                if (stockPartitionRouter.readPauseToken() != null){
+                    throw new IllegalArgumentException("다른 서버에서 재고 partition 재분배가 진행중입니다.");
+                }
+                applyPartitionCount(partitionCount, true);
+                log.info("재고 partition 확장 {} -> {}", oldCount, partitionCount);
+                return getStatus();
+            }
+            String token = UUID.randomUUID().toString();
+//            재분배 서버가 죽어도 발행이 영원히 멈추지 않도록 ttl을 둔다.
+            if (!stockPartitionRouter.pausePublishing(token, drainTimeoutMillis * 3)){
+                throw new IllegalArgumentException("다른 서버에서 재고 partition 재분배가 진행중입니다.");
+            }
+            try {
+                awaitPublishPaused(token);
+                awaitDrained(oldCount);
+                applyPartitionCount(partitionCount, true);
+            } finally {
+                stockPartitionRouter.resumePublishing(token);
+            }
+            log.info("재고 partition 재분배 {} -> {}", oldCount, partitionCount);
+        } finally {
+            partitionLock.unlock();
+        }
+        return getStatus();
+    }
+
+//    다른 서버에서 변경한 K를 반영하고, 사용하지 않게 된 partition 중 빈 queue의 소비자를 정리한다.
+    @Scheduled(fixedDelayString = "${stock.partition.refresh-millis:10000}")
+    public void refresh(){
+        partitionLock.lock();
+        try {
+            Integer saved = stockPartitionRouter.readSavedCount();
+            if (saved != null && saved != stockPartitionRouter.getPartitionCount()){
+                log.info("재고 partition 개수 변경 감지 {} -> {}", stockPartitionRouter.getPartitionCount(), saved);
+                applyPartitionCount(saved, false);
+            } else if (!activePartitions().containsAll(partitionRange(stockPartitionRouter.getPartitionCount()))){
+//                중계 서버가 K를 먼저 읽어서 바꾼 경우 : 소비자만 맞춘다.
+                applyPartitionCount(stockPartitionRouter.getPartitionCount(), false);
+            }
+            retireIdlePartitions();
+        } catch (Exception e){
+            log.error("재고 partition 갱신 실패 : {}", e.getMessage());
+        } finally {
+            partitionLock.unlock();
+        }
+    }
+
+    public StockPartitionResDto getStatus(){
+        List<Integer> partitions = new ArrayList<>(activePartitions());
+        List<Long> depths = new ArrayList<>();
+        for (int partition : partitions){
+            depths.add(queueDepth(partition));
+        }
+        return StockPartitionResDto.builder()
+                .partitionCount(stockPartitionRouter.getPartitionCount())
+                .activePartitions(partitions)
+                .queueDepths(depths)
+                .build();
+    }
+
+//    새 partition은 소비자부터 띄운 뒤 발행 대상을 바꾼다.
+    private void applyPartitionCount(int partitionCount, boolean save){
+        for (int i = 0; i < partitionCount; i++){
+            amqpAdmin.declareQueue(RabbitMqConfig.stockPartitionQueue(i));
+            if (rabbitListenerEndpointRegistry.getListenerContainer(listenerId(i)) == null){
+                rabbitListenerEndpointRegistry.registerListenerContainer(
+                        RabbitMqConfig.stockPartitionEndpoint(i, stockRabbitMqService), stockBatchContainerFactory, true);
+            }
+        }
+        stockPartitionRouter.changePartitionCount(partitionCount, save);
+    }
+
+//    재시도를 기다리는 메시지는 정리한 queue 이름이 아니라 반환 queue를 거쳐 현재 K로 다시 partition을 정하므로(StockRetryService.returnRetried) 유실되지 않는다.
+    private void retireIdlePartitions(){
+        int partitionCount = stockPartitionRouter.getPartitionCount();
+        for (int partition : activePartitions()){
+            if (partition < partitionCount || queueDepth(partition) > 0){
+                continue;
+            }
+            MessageListenerContainer container = rabbitListenerEndpointRegistry.unregisterListenerContainer(listenerId(partition));
+            if (container != null){
+                container.stop();
+            }
+//            소비자가 없고 비어있을 때만 삭제된다.
+            amqpAdmin.deleteQueue(StockPartitionRouter.queueName(partition), true, true);
+            log.info("재고 partition {} 정리", partition);
+        }
+    }
+
+//    중계 서버가 발행을 멈추고 발행한 메시지의 confirm을 마칠때까지 대기 (중계 서버가 없으면 바로 진행)
+    private void awaitPublishPaused(String token) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+        while (!stockPartitionRouter.isPauseAcked(token) && Boolean.TRUE.equals(redisTemplate.hasKey(OutboxRelay.LOCK_KEY))){
+            if (System.currentTimeMillis() > deadline){
+                throw new IllegalArgumentException("발행한 재고 메시지의 confirm을 기다리다 시간이 초과되었습니다.");
+            }
+            Thread.sleep(50);
+        }
+    }
+
+    private static List<Integer> partitionRange(int partitionCount){
+        List<Integer> partitions = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++){
+            partitions.add(i);
+        }
+        return partitions;
+    }
+
+    private void awaitDrained(int partitionCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+        for (int i = 0; i < partitionCount; i++){
+            while (queueDepth(i) > 0){
+                if (System.currentTimeMillis() > deadline){
+                    throw new IllegalArgumentException("재고 partition queue가 비워지지 않아 재분배를 중단합니다.");
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private TreeSet<Integer> activePartitions(){
+        TreeSet<Integer> partitions = new TreeSet<>();
+        for (String id : rabbitListenerEndpointRegistry.getListenerContainerIds()){
+            if (id.startsWith(RabbitMqConfig.STOCK_PARTITION_LISTENER_PREFIX)){
+                partitions.add(Integer.parseInt(id.substring(RabbitMqConfig.STOCK_PARTITION_LISTENER_PREFIX.length())));
+            }
+        }
+        return partitions;
+    }
+
+    private long queueDepth(int partition){
+        QueueInformation info = amqpAdmin.getQueueInfo(StockPartitionRouter.queueName(partition));
+        return info == null ? 0 : info.getMessageCount();
+    }
+
+    private static String listenerId(int partition){
+        return RabbitMqConfig.STOCK_PARTITION_LISTENER_PREFIX + partition;
+    }
+}
@@ -1,47 +1,291 @@
 package com.beyond.ordersystem.common.service;
 
+import com.beyond.ordersystem.common.domain.ProcessedMessage;
 import com.beyond.ordersystem.common.dto.StockRabbitMqDto;
-import com.beyond.ordersystem.product.domain.Product;
-import com.beyond.ordersystem.product.repository.ProductRepository;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import jakarta.persistence.EntityNotFoundException;
-import lombok.RequiredArgsConstructor;
+import com.beyond.ordersystem.common.repository.ProcessedMessageRepository;
+import com.beyond.ordersystem.ordering.service.StockInventoryService;
+import com.beyond.ordersystem.product.repository.ProductStockJdbcRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.HashMap;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+@Slf4j
 @Component
-@RequiredArgsConstructor
 public class StockRabbitMqService {
-    private final RabbitTemplate rabbitTemplate;
-    private final ProductRepository productRepository;
+    public static final String LEGACY_LISTENER_ID = "stockLegacyListener";
 
-//    rabbitmq에 메시지 발행
-    public void publish(Long productId, int productCount){
-        StockRabbitMqDto dto = StockRabbitMqDto.builder()
-                .productId(productId)
-                .productCount(productCount)
-                .build();
+    private final ProductStockJdbcRepository productStockJdbcRepository;
+    private final ProcessedMessageRepository processedMessageRepository;
+    private final StockInventoryService stockInventoryService;
+    private final StockEventCodecs stockEventCodecs;
+    private final StockRetryService stockRetryService;
+    private final TransactionTemplate transactionTemplate;
 
-        rabbitTemplate.convertAndSend("stockDecreaseQueue", dto);
+//    최근 반영한 line id -> 반영시각(ms) (LRU) : 재전달된 메시지는 대부분 여기서 DB 조회 없이 걸러진다.
+    private final Map<String, Long> recentMessageIds;
+    private final Map<String, LongAdder> busyNanosMap = new ConcurrentHashMap<>();
+
+    private final DistributionSummary batchMessageSummary;
+    private final DistributionSummary batchRowSummary;
+    private final Timer lagTimer;
+    private final Counter duplicateCounter;
+
+    @Value("${stock.consumer.processed-retention-days:7}")
+    private long processedRetentionDays;
+//    pending 감소 표시 유지시간 : 이 시간 안에 재전달된 line은 pending 감소를 다시 시도한다. (이미 줄였으면 표시로 걸러짐)
+//    commit 후 감소 전 장애로 인한 재전달(소비자 재시작, 재시도 단계, outbox 재발행)을 덮을 만큼 길어야 한다.
+    @Value("${stock.consumer.pending-marker-ttl-millis:600000}")
+    private long pendingMarkerTtlMillis;
+
+    public StockRabbitMqService(ProductStockJdbcRepository productStockJdbcRepository, ProcessedMessageRepository processedMessageRepository,
+                                StockInventoryService stockInventoryService, StockEventCodecs stockEventCodecs, StockRetryService stockRetryService,
+                                PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                                @Value("${stock.consumer.dedupe-window-size:100000}") int dedupeWindowSize) {
+        this.productStockJdbcRepository = productStockJdbcRepository;
+        this.processedMessageRepository = processedMessageRepository;
+        this.stockInventoryService = stockInventoryService;
+        this.stockEventCodecs = stockEventCodecs;
+        this.stockRetryService = stockRetryService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.recentMessageIds = Collections.synchronizedMap(new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > dedupeWindowSize;
+            }
+        });
+        this.batchMessageSummary = DistributionSummary.builder("stock.consumer.batch.messages")
+                .description("batch당 처리한 메시지 수")
+                .register(meterRegistry);
+        this.batchRowSummary = DistributionSummary.builder("stock.consumer.batch.rows")
+                .description("batch당 rdb에 반영한 상품 row 수")
+                .register(meterRegistry);
+        this.lagTimer = Timer.builder("stock.consumer.lag")
+                .description("메시지 발행부터 rdb 반영 commit까지 걸린 시간 (batch내 가장 오래된 메시지 기준)")
+                .register(meterRegistry);
+        this.duplicateCounter = meterRegistry.counter("stock.consumer.duplicate");
+    }
+
+//    rabbitmq에 발행된 메시지를 batch로 수신 (RabbitMqConfig.stockBatchContainerFactory : 최대 N건 또는 T ms)
+//    partition queue(stockDecreaseQueue.0 ~ K-1)의 소비자는 RabbitMqConfig에서 등록하고, 여기서는 partition 도입 전 queue만 구독한다.
+//    batch 전체를 한 트랜잭션으로 반영하고, 실패하면 어떤 메시지가 원인인지 모르므로 메시지 단위로 다시 반영한다.
+//    메시지 단위로도 실패한 메시지만 재시도/dead letter queue로 보내고, 나머지는 정상 ack 하여 소비자가 막히지 않게 한다.
+//    이전 queue는 partition 도입 전에 쌓인 메시지만 남아있으므로 자동조절 대상이 아니다.
+    @RabbitListener(id = LEGACY_LISTENER_ID, queues = "stockDecreaseQueue", containerFactory = "stockBatchContainerFactory")
+    public void subscribe(List<Message> messages) {
+        if (messages.isEmpty()){
+            return;
+        }
+        long startedAt = System.nanoTime();
+        try {
+            applyOrRetry(messages);
+        } finally {
+            busyNanosMap.computeIfAbsent(String.valueOf(messages.get(0).getMessageProperties().getConsumerQueue()), k -> new LongAdder())
+                    .add(System.nanoTime() - startedAt);
+        }
+    }
+
+//    queue별 누적 처리시간 (소비자 사용률 계산용)
+    public long getBusyNanos(String queue){
+        LongAdder busyNanos = busyNanosMap.get(queue);
+        return busyNanos == null ? 0 : busyNanos.sum();
+    }
+
+    private void applyOrRetry(List<Message> messages){
+        try {
+            transactionTemplate.executeWithoutResult(status -> apply(messages));
+            return;
+        } catch (RuntimeException e){
+            if (messages.size() == 1){
+                stockRetryService.retryOrDeadLetter(messages.get(0), e);
+                return;
+            }
+            log.warn("재고 반영 batch 실패, 메시지 단위로 다시 반영 ({}건) : {}", messages.size(), e.getMessage());
+        }
+        for (Message message : messages){
+            try {
+                transactionTemplate.executeWithoutResult(status -> apply(List.of(message)));
+            } catch (RuntimeException e){
+                stockRetryService.retryOrDeadLetter(message, e);
+            }
+        }
     }
 
-//    rabbitmq에 발행된 메시지 수신
-//    listener는 단일 스레드로 메시지를 처리하므로 동시성이슈발생 x
-    @RabbitListener(queues = "stockDecreaseQueue")
-    @Transactional
-    public void subscribe(Message message) throws JsonProcessingException {
-        String messageBody =new String(message.getBody());
-        ObjectMapper objectMapper = new ObjectMapper();
-        StockRabbitMqDto dto = objectMapper.readValue(messageBody, StockRabbitMqDto.class);
-        Product product = productRepository.findById(dto.getProductId()).orElseThrow(()->new EntityNotFoundException("존재하지 않는 상품입니다"));
-        product.updateStockQuantity(dto.getProductCount());
+//    반영기록 정리 : 보관기간보다 오래된 메시지가 다시 올 일은 없다고 본다.
+    @Scheduled(fixedDelayString = "${stock.consumer.processed-purge-interval-millis:3600000}")
+    public void purgeProcessedMessages(){
+        try {
+            int deleted = processedMessageRepository.deleteProcessedBefore(LocalDateTime.now().minusDays(processedRetentionDays));
+            if (deleted > 0){
+                log.info("재고 반영기록 {}건 삭제", deleted);
+            }
+        } catch (Exception e){
+            log.error("재고 반영기록 정리 실패 : {}", e.getMessage());
+        }
     }
 
+//    이미 반영한 상품(line)을 빼고, 같은 상품의 수량을 합쳐서 상품당 update 1건으로 만들어 JDBC batch로 한번에 보낸다.
+//    반영기록은 line마다 (메시지id:상품id)로 같은 트랜잭션에 저장하므로, commit 후 ack 전에 죽어서 다시 전달되어도 두번 차감되지 않는다.
+//    발행기가 주문을 partition별로 나누는 구성은 K에 따라 달라지므로, 재분배 뒤 다시 발행된 메시지도 line 단위로 걸러야 빠지거나 중복되는 상품이 없다.
+//    redis 반영대기 수량은 commit 후에 line id별로 한번만 줄인다. commit 후 줄이기 전에 죽어서 재전달된 line은 rdb 반영은 건너뛰고 pending만 줄인다.
+    private void apply(List<Message> messages){
+        Map<String, StockRabbitMqDto> redeliveredLines = new LinkedHashMap<>();
+        List<FreshMessage> freshMessages = excludeProcessed(messages, redeliveredLines);
+        if (freshMessages.isEmpty()){
+            if (!redeliveredLines.isEmpty()){
+                stockInventoryService.completePendingLines(redeliveredLines, pendingMarkerTtlMillis);
+            }
+            return;
+        }
+        Map<Long, Integer> quantityMap = new TreeMap<>();
+        List<ProcessedMessage> processedMessages = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        long oldestTimestamp = System.currentTimeMillis();
+        for (FreshMessage freshMessage : freshMessages){
+            freshMessage.lines().forEach((productId, count) -> quantityMap.merge(productId, count, Integer::sum));
+            for (String lineId : freshMessage.lineIds()){
+                processedMessages.add(ProcessedMessage.builder().messageId(lineId).processedTime(now).build());
+            }
+            Date timestamp = freshMessage.message().getMessageProperties().getTimestamp();
+            if (timestamp != null){
+                oldestTimestamp = Math.min(oldestTimestamp, timestamp.getTime());
+            }
+        }
+        Map<Long, Integer> deltaMap = new TreeMap<>();
+        quantityMap.forEach((productId, count) -> deltaMap.put(productId, -count));
+        List<Long> missingIds = productStockJdbcRepository.adjustStockQuantities(deltaMap);
+        if (!missingIds.isEmpty()){
+            throw new IllegalArgumentException("존재하지 않는 상품의 재고반영 메시지 : " + missingIds);
+        }
+        processedMessageRepository.saveAll(processedMessages);
+
+        Map<String, StockRabbitMqDto> pendingLines = new LinkedHashMap<>(redeliveredLines);
+        Map<Long, Integer> legacyQuantityMap = new TreeMap<>();
+        for (FreshMessage freshMessage : freshMessages){
+            String messageId = freshMessage.message().getMessageProperties().getMessageId();
+            freshMessage.lines().forEach((productId, count) -> {
+                if (messageId == null){
+                    legacyQuantityMap.merge(productId, count, Integer::sum);
+                } else {
+                    pendingLines.put(lineId(messageId, productId), new StockRabbitMqDto(productId, count));
+                }
+            });
+        }
+
+        long publishedAt = oldestTimestamp;
+//        rdb에 반영이 commit된 뒤에 redis의 반영대기 수량을 줄인다.
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                long processedAt = System.currentTimeMillis();
+                processedMessages.forEach(processed -> recentMessageIds.put(processed.getMessageId(), processedAt));
+                stockInventoryService.completePendingLines(pendingLines, pendingMarkerTtlMillis);
+//                id가 없는 이전 형식 메시지는 line id가 없으므로 그대로 줄인다.
+                stockInventoryService.completePendingQuantities(legacyQuantityMap);
+                batchMessageSummary.record(freshMessages.size());
+                batchRowSummary.record(deltaMap.size());
+                lagTimer.record(Duration.ofMillis(Math.max(0, System.currentTimeMillis() - publishedAt)));
+            }
+        });
+    }
+
+//    메모리의 최근 id -> 반영기록 테이블 순서로 line 단위로 확인 (id가 없는 이전 형식 메시지는 그대로 반영)
+//    반환값 : 반영할 line이 남은 메시지만, 걸러진 line마다 중복 지표를 올린다.
+//    redeliveredLines : 이미 반영된 line 중 pending 감소 표시 유지시간 안에 반영된 line (pending 감소를 다시 시도할 대상)
+    private List<FreshMessage> excludeProcessed(List<Message> messages, Map<String, StockRabbitMqDto> redeliveredLines){
+        long now = System.currentTimeMillis();
+        List<Map<Long, Integer>> decoded = new ArrayList<>(messages.size());
+        Set<String> candidateIds = new HashSet<>();
+        for (Message message : messages){
+//            한 메시지에 같은 상품이 여러 줄이면 합친다. (line id가 상품id 기준)
+            Map<Long, Integer> lines = new LinkedHashMap<>();
+            for (StockRabbitMqDto dto : stockEventCodecs.decode(message).getLines()){
+                lines.merge(dto.getProductId(), dto.getProductCount(), Integer::sum);
+            }
+            decoded.add(lines);
+            String messageId = message.getMessageProperties().getMessageId();
+            if (messageId == null){
+                continue;
+            }
+            for (Long productId : lines.keySet()){
+                String lineId = lineId(messageId, productId);
+                Long processedAt = recentMessageIds.get(lineId);
+                if (processedAt == null){
+                    candidateIds.add(lineId);
+                } else if (now - processedAt < pendingMarkerTtlMillis){
+                    redeliveredLines.put(lineId, new StockRabbitMqDto(productId, lines.get(productId)));
+                }
+            }
+        }
+        Set<String> processedIds = new HashSet<>();
+        Set<String> recentlyProcessedIds = new HashSet<>();
+        if (!candidateIds.isEmpty()){
+            LocalDateTime markerFrom = LocalDateTime.now().minus(Duration.ofMillis(pendingMarkerTtlMillis));
+            for (ProcessedMessage processed : processedMessageRepository.findProcessed(candidateIds)){
+                processedIds.add(processed.getMessageId());
+                if (processed.getProcessedTime().isAfter(markerFrom)){
+                    recentlyProcessedIds.add(processed.getMessageId());
+                }
+            }
+        }
+        List<FreshMessage> freshMessages = new ArrayList<>();
+        Set<String> seenIds = new HashSet<>();
+        for (int i = 0; i < messages.size(); i++){
+            Message message = messages.get(i);
+            String messageId = message.getMessageProperties().getMessageId();
+            if (messageId == null){
+                freshMessages.add(new FreshMessage(message, decoded.get(i), List.of()));
+                continue;
+            }
+            Map<Long, Integer> freshLines = new LinkedHashMap<>();
+            List<String> lineIds = new ArrayList<>();
+            for (Map.Entry<Long, Integer> line : decoded.get(i).entrySet()){
+                String lineId = lineId(messageId, line.getKey());
+                if (candidateIds.contains(lineId) && !processedIds.contains(lineId) && seenIds.add(lineId)){
+                    freshLines.put(line.getKey(), line.getValue());
+                    lineIds.add(lineId);
+                } else {
+                    if (recentlyProcessedIds.contains(lineId)){
+                        redeliveredLines.put(lineId, new StockRabbitMqDto(line.getKey(), line.getValue()));
+                    }
+                    duplicateCounter.increment();
+                }
+            }
+            if (!freshLines.isEmpty()){
+                freshMessages.add(new FreshMessage(message, freshLines, lineIds));
+            }
+        }
+        return freshMessages;
+    }
+
+    private static String lineId(String messageId, Long productId){
+        return messageId + ":" + productId;
+    }
+
+    private record FreshMessage(Message message, Map<Long, Integer> lines, List<String> lineIds) {
+    }
 }
@@ -0,0 +1,181 @@
+package com.beyond.ordersystem.common.service;
+
+import com.beyond.ordersystem.common.dto.StockDeadLetterResDto;
+import com.beyond.ordersystem.common.dto.StockRabbitMqDto;
+import com.rabbitmq.client.GetResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// 재고 반영에 실패한 메시지 처리
+// 일시적인 실패(DB timeout 등)는 단계별 재시도 queue(stockRetryQueue.1 ~ N)로 보낸다.
+// 재시도 queue는 단계마다 TTL이 2배로 늘어나고, TTL이 지나면 반환 queue를 거쳐 현재 K 기준 partition queue로 돌아간다. (RabbitMqConfig.stockRetryQueues)
+// 재시도를 다 쓰거나 다시 해도 안되는 실패(없는 상품, 메시지 형식 오류)는 dead letter queue에 보관하고, 원인을 고친 뒤 replay로 다시 넣는다.
+@Slf4j
+@Service
+public class StockRetryService {
+
+    public static final String RETRY_EXCHANGE_PREFIX = "stock.retry.";
+    public static final String RETRY_QUEUE_PREFIX = "stockRetryQueue.";
+    public static final String RETURN_QUEUE = "stockRetryReturnQueue";
+    public static final String DEAD_LETTER_QUEUE = "stockDeadLetterQueue";
+    public static final String RETRY_COUNT_HEADER = "x-stock-retry-count";
+    public static final String ORIGINAL_QUEUE_HEADER = "x-stock-original-queue";
+    public static final String ERROR_HEADER = "x-stock-error";
+    private static final MessagePropertiesConverter PROPERTIES_CONVERTER = new DefaultMessagePropertiesConverter();
+
+    private final RabbitTemplate rabbitTemplate;
+    private final AmqpAdmin amqpAdmin;
+    private final StockPartitionRouter stockPartitionRouter;
+    private final StockEventCodecs stockEventCodecs;
+
+    private final Counter retryCounter;
+    private final Counter deadLetterCounter;
+    private final Counter replayCounter;
+
+    @Value("${stock.retry.tiers:4}")
+    private int tiers;
+    @Value("${stock.publisher.confirm-timeout-millis:5000}")
+    private long confirmTimeoutMillis;
+
+    public StockRetryService(RabbitTemplate rabbitTemplate, AmqpAdmin amqpAdmin, StockPartitionRouter stockPartitionRouter,
+                             StockEventCodecs stockEventCodecs, MeterRegistry meterRegistry) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.amqpAdmin = amqpAdmin;
+        this.stockPartitionRouter = stockPartitionRouter;
+        this.stockEventCodecs = stockEventCodecs;
+        this.retryCounter = meterRegistry.counter("stock.consumer.retry");
+        this.deadLetterCounter = meterRegistry.counter("stock.consumer.dead.letter");
+        this.replayCounter = meterRegistry.counter("stock.consumer.dead.letter.replay");
+    }
+
+    public static String retryExchange(int tier){
+        return RETRY_EXCHANGE_PREFIX + tier;
+    }
+
+    public static String retryQueue(int tier){
+        return RETRY_QUEUE_PREFIX + tier;
+    }
+
+//    실패한 메시지를 다음 재시도 단계 또는 dead letter queue로 보낸다.
+//    여기서 발행이 실패하면 예외를 던져서 컨테이너가 메시지를 다시 전달하게 한다.
+    public void retryOrDeadLetter(Message message, Exception cause){
+        MessageProperties properties = message.getMessageProperties();
+        Integer retryCount = properties.getHeader(RETRY_COUNT_HEADER);
+        int attempt = retryCount == null ? 1 : retryCount + 1;
+        String originalQueue = properties.getHeader(ORIGINAL_QUEUE_HEADER);
+        if (originalQueue == null){
+            originalQueue = properties.getConsumerQueue();
+            properties.setHeader(ORIGINAL_QUEUE_HEADER, originalQueue);
+        }
+        properties.setHeader(ERROR_HEADER, String.valueOf(cause.getMessage()));
+
+        if (!(cause instanceof IllegalArgumentException) && attempt <= tiers){
+//            재시도 queue는 반환 queue로 dead letter 되므로 routing key는 쓰지 않는다. (돌아갈 queue는 반환할 때 정한다)
+            properties.setHeader(RETRY_COUNT_HEADER, attempt);
+            rabbitTemplate.send(retryExchange(attempt), "", message);
+            retryCounter.increment();
+            log.warn("재고 반영 실패, {}번째 재시도 예약 messageId={} : {}", attempt, properties.getMessageId(), cause.getMessage());
+            return;
+        }
+        rabbitTemplate.send("", DEAD_LETTER_QUEUE, message);
+        deadLetterCounter.increment();
+        log.error("재고 반영 실패, dead letter queue로 이동 messageId={} : {}", properties.getMessageId(), cause.getMessage());
+    }
+
+//    재시도 대기가 끝난 메시지를 현재 K 기준 partition queue로 돌려보낸다.
+//    K는 다른 서버가 바꿨을 수 있으므로 redis에서 다시 읽고, broker confirm을 받은 뒤에 ack 한다. (실패하면 예외로 다시 전달받음)
+    @RabbitListener(queues = RETURN_QUEUE)
+    public void returnRetried(Message message) throws Exception {
+        stockPartitionRouter.syncPartitionCount();
+        String queue = replayQueue(message);
+        message.getMessageProperties().setHeader(ORIGINAL_QUEUE_HEADER, queue);
+        CorrelationData correlationData = new CorrelationData(UUID.randomUUID().toString());
+        rabbitTemplate.send("", queue, message, correlationData);
+        CorrelationData.Confirm confirm = correlationData.getFuture().get(confirmTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (!confirm.isAck()){
+            throw new IllegalStateException("재시도 메시지 반환 nack : " + confirm.getReason());
+        }
+    }
+
+    public StockDeadLetterResDto getDeadLetterStatus(){
+        return StockDeadLetterResDto.builder()
+                .replayed(0)
+                .remaining(deadLetterCount())
+                .build();
+    }
+
+//    dead letter queue의 메시지를 최대 max건 원래 queue로 다시 넣는다. (재시도 횟수 초기화)
+//    다시 넣은 메시지의 발행이 끝난 뒤에 dead letter queue에서 ack 하므로 중간에 실패해도 유실되지 않는다.
+    public StockDeadLetterResDto replay(int max){
+        if (max < 1){
+            throw new IllegalArgumentException("replay 개수는 1 이상이어야 합니다.");
+        }
+        int replayed = 0;
+        while (replayed < max){
+            Boolean moved = rabbitTemplate.execute(channel -> {
+                GetResponse response = channel.basicGet(DEAD_LETTER_QUEUE, false);
+                if (response == null){
+                    return false;
+                }
+                MessageProperties properties = PROPERTIES_CONVERTER.toMessageProperties(response.getProps(), response.getEnvelope(), "UTF-8");
+                properties.removeHeader(RETRY_COUNT_HEADER);
+                properties.removeHeader(ERROR_HEADER);
+                String queue = replayQueue(new Message(response.getBody(), properties));
+                properties.setHeader(ORIGINAL_QUEUE_HEADER, queue);
+                channel.basicPublish("", queue, PROPERTIES_CONVERTER.fromMessageProperties(properties, "UTF-8"), response.getBody());
+                channel.basicAck(response.getEnvelope().getDeliveryTag(), false);
+                return true;
+            });
+            if (moved == null || !moved){
+                break;
+            }
+            replayed++;
+        }
+        replayCounter.increment(replayed);
+        log.info("재고 반영 dead letter 메시지 {}건 replay", replayed);
+        return StockDeadLetterResDto.builder()
+                .replayed(replayed)
+                .remaining(deadLetterCount())
+                .build();
+    }
+
+//    partition queue에서 온 메시지는 현재 K 기준으로 다시 partition을 정한다. (원래 queue는 재분배로 없어졌을 수 있다)
+//    partition 도입 전 queue에서 온 메시지는 그 queue로 돌려보낸다.
+    private String replayQueue(Message message){
+        String originalQueue = message.getMessageProperties().getHeader(ORIGINAL_QUEUE_HEADER);
+        if (originalQueue != null && !originalQueue.startsWith(StockPartitionRouter.QUEUE_PREFIX)){
+            return originalQueue;
+        }
+        try {
+            List<StockRabbitMqDto> lines = stockEventCodecs.decode(message).getLines();
+            if (!lines.isEmpty()){
+                return stockPartitionRouter.queueOf(lines.get(0).getProductId());
+            }
+        } catch (IllegalArgumentException e){
+//            형식이 잘못된 메시지는 소비자가 다시 dead letter queue로 보낸다.
+            log.warn("재고 반영 메시지 해석 실패 messageId={} : {}", message.getMessageProperties().getMessageId(), e.getMessage());
+        }
+        return StockPartitionRouter.queueName(0);
+    }
+
+    private long deadLetterCount(){
+        QueueInformation info = amqpAdmin.getQueueInfo(DEAD_LETTER_QUEUE);
+        return info == null ? 0 : info.getMessageCount();
+    }
+}
@@ -2,6 +2,7 @@ package com.beyond.ordersystem.member.controller;
 
 import com.beyond.ordersystem.common.auth.JwtTokenProvider;
 import com.beyond.ordersystem.common.dto.CommonDto;
+import com.beyond.ordersystem.common.dto.CursorPageDto;
 import com.beyond.ordersystem.member.domain.Member;
 import com.beyond.ordersystem.member.dto.*;
 import com.beyond.ordersystem.member.service.MemberService;
@@ -15,7 +16,6 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
 
 @RestController
 @RequestMapping("/member")
@@ -82,8 +82,9 @@ public class MemberController {
 
     @GetMapping("/list")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<?> findAll(){
-        List<MemberResDto> memberResDtoList = memberService.findAll();
+    public ResponseEntity<?> findAll(MemberSearchDto memberSearchDto, @RequestParam(required = false) Long cursor,
+                                     @RequestParam(defaultValue = "20") int size){
+        CursorPageDto<MemberResDto> memberResDtoList = memberService.findPage(memberSearchDto, cursor, size);
         return new ResponseEntity<>(
                 CommonDto.builder()
                         .result(memberResDtoList)
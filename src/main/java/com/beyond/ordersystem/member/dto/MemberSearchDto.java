@@ -0,0 +1,22 @@
+package com.beyond.ordersystem.member.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+
+// 회원목록 조회 조건 (모두 선택, 가입기간은 [from, to))
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+public class MemberSearchDto {
+    private String delYn;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime from;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime to;
+}
@@ -1,10 +1,25 @@
 package com.beyond.ordersystem.member.repository;
 
 import com.beyond.ordersystem.member.domain.Member;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 public interface MemberRepository extends JpaRepository<Member, Long> {
     Optional<Member> findByEmail(String email);
+
+//    admin 회원목록 keyset 페이지 : 최신 가입순(id 내림차순)으로 cursor보다 작은 id부터 limit건 (count 쿼리 없음)
+    @Query("select m from Member m " +
+            "where (:cursor is null or m.id < :cursor) " +
+            "and (:delYn is null or m.delYn = :delYn) " +
+            "and (:from is null or m.createdTime >= :from) " +
+            "and (:to is null or m.createdTime < :to) " +
+            "order by m.id desc")
+    List<Member> findPage(@Param("cursor") Long cursor, @Param("delYn") String delYn,
+                          @Param("from") LocalDateTime from, @Param("to") LocalDateTime to, Limit limit);
 }
@@ -1,12 +1,15 @@
 package com.beyond.ordersystem.member.service;
 
+import com.beyond.ordersystem.common.dto.CursorPageDto;
 import com.beyond.ordersystem.member.domain.Member;
 import com.beyond.ordersystem.member.dto.LoginReqDto;
 import com.beyond.ordersystem.member.dto.MemberCreateDto;
 import com.beyond.ordersystem.member.dto.MemberResDto;
+import com.beyond.ordersystem.member.dto.MemberSearchDto;
 import com.beyond.ordersystem.member.repository.MemberRepository;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
@@ -21,6 +24,8 @@ import java.util.stream.Collectors;
 @Transactional
 @RequiredArgsConstructor
 public class MemberService {
+    private static final int MAX_PAGE_SIZE = 100;
+
     private final MemberRepository memberRepository;
     private final PasswordEncoder passwordEncoder;
 
@@ -48,10 +53,15 @@ public class MemberService {
         return optionalMember.get();
     }
 
+//    admin 회원목록 : cursor(이전 페이지의 nextCursor)부터 size건, 다음 페이지 확인을 위해 1건 더 조회
     @Transactional(readOnly = true)
-    public List<MemberResDto> findAll(){
-        return memberRepository.findAll().stream()
-                .map(m->MemberResDto.fromEntity(m)).collect(Collectors.toList());
+    public CursorPageDto<MemberResDto> findPage(MemberSearchDto memberSearchDto, Long cursor, int size){
+        if (size < 1 || size > MAX_PAGE_SIZE){
+            throw new IllegalArgumentException("페이지 크기는 1 ~ " + MAX_PAGE_SIZE + " 사이여야 합니다.");
+        }
+        List<Member> members = memberRepository.findPage(cursor, memberSearchDto.getDelYn(), memberSearchDto.getFrom(), memberSearchDto.getTo(), Limit.of(size + 1));
+        return CursorPageDto.of(members, size, Member::getId,
+                rows -> rows.stream().map(m->MemberResDto.fromEntity(m)).collect(Collectors.toList()));
     }
 
     @Transactional(readOnly = true)
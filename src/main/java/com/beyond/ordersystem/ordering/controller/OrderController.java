@@ -1,18 +1,32 @@
 package com.beyond.ordersystem.ordering.controller;
 
 import com.beyond.ordersystem.common.dto.CommonDto;
+import com.beyond.ordersystem.common.dto.CursorPageDto;
 import com.beyond.ordersystem.ordering.domain.Ordering;
+import com.beyond.ordersystem.ordering.dto.OrderBulkCancelReqDto;
+import com.beyond.ordersystem.ordering.dto.OrderBulkCancelResDto;
 import com.beyond.ordersystem.ordering.dto.OrderCreateDto;
 import com.beyond.ordersystem.ordering.dto.OrderListResDto;
+import com.beyond.ordersystem.ordering.dto.OrderSearchDto;
+import com.beyond.ordersystem.ordering.dto.OrderTicketResDto;
+import com.beyond.ordersystem.ordering.service.OrderExportService;
+import com.beyond.ordersystem.ordering.service.OrderIdempotencyService;
+import com.beyond.ordersystem.ordering.service.OrderIntakeService;
 import com.beyond.ordersystem.ordering.service.OrderingService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @RestController
@@ -20,9 +34,31 @@ import java.util.List;
 @RequestMapping("/ordering")
 public class OrderController {
     private final OrderingService orderingService;
+    private final OrderIntakeService orderIntakeService;
+    private final OrderExportService orderExportService;
+    private final OrderIdempotencyService orderIdempotencyService;
 
+//    Idempotency-Key 헤더가 있으면 같은 키로 재시도된 요청은 주문을 다시 만들지 않고 처음 응답을 돌려준다.
     @PostMapping("/create")
-    public ResponseEntity<?> create(@RequestBody List<OrderCreateDto> orderCreateDtos){
+    public ResponseEntity<?> create(@RequestBody List<OrderCreateDto> orderCreateDtos,
+                                    @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey){
+        if (idempotencyKey == null){
+            return createOrder(orderCreateDtos);
+        }
+        return orderIdempotencyService.execute(idempotencyKey, orderCreateDtos, () -> createOrder(orderCreateDtos));
+    }
+
+//    비동기 접수 모드에서는 재고만 차감하고 접수번호를 돌려준다. (저장 결과는 /ordering/status/{ticket}으로 조회)
+    private ResponseEntity<?> createOrder(List<OrderCreateDto> orderCreateDtos){
+        if (orderIntakeService.isEnabled()){
+            OrderTicketResDto orderTicketResDto = orderIntakeService.submit(orderCreateDtos);
+            return new ResponseEntity<>(
+                    CommonDto.builder()
+                            .result(orderTicketResDto)
+                            .status_code(HttpStatus.ACCEPTED.value())
+                            .status_message("주문 접수 완료")
+                            .build(),HttpStatus.ACCEPTED);
+        }
         Long id = orderingService.createConcurrent(orderCreateDtos);
         return new ResponseEntity<>(
                 CommonDto.builder()
@@ -32,10 +68,22 @@ public class OrderController {
                         .build(),HttpStatus.CREATED);
     }
 
+    @GetMapping("/status/{ticket}")
+    public ResponseEntity<?> status(@PathVariable String ticket){
+        OrderTicketResDto orderTicketResDto = orderIntakeService.getStatus(ticket);
+        return new ResponseEntity<>(
+                CommonDto.builder()
+                        .result(orderTicketResDto)
+                        .status_code(HttpStatus.OK.value())
+                        .status_message("주문 접수상태 조회 성공")
+                        .build(),HttpStatus.OK);
+    }
+
     @GetMapping("/list")
     @PreAuthorize("hasRole('ADMIN')")
-    public ResponseEntity<?> findAll(){
-        List<OrderListResDto> orderListResDtos = orderingService.findAll();
+    public ResponseEntity<?> findAll(OrderSearchDto orderSearchDto, @RequestParam(required = false) Long cursor,
+                                     @RequestParam(defaultValue = "20") int size){
+        CursorPageDto<OrderListResDto> orderListResDtos = orderingService.findPage(orderSearchDto, cursor, size);
         return new ResponseEntity<>(
                 CommonDto.builder()
                         .result(orderListResDtos)
@@ -44,6 +92,22 @@ public class OrderController {
                         .build(),HttpStatus.OK);
     }
 
+//    주문내역 내보내기 (format : ndjson, csv) : 조회하면서 바로 응답에 쓴다. 끊기면 cursor(마지막으로 온전히 받은 주문id)부터 이어받는다.
+    @GetMapping("/export")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(defaultValue = OrderExportService.FORMAT_NDJSON) String format,
+                                                        @RequestParam(required = false) Long cursor,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to){
+        OrderExportService.checkFormat(format);
+        StreamingResponseBody body = outputStream -> orderExportService.export(format, cursor, from, to, outputStream);
+        boolean csv = OrderExportService.FORMAT_CSV.equals(format);
+        return ResponseEntity.ok()
+                .contentType(csv ? new MediaType("text", "csv", StandardCharsets.UTF_8) : MediaType.APPLICATION_NDJSON)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"orders." + format + "\"")
+                .body(body);
+    }
+
     @GetMapping("/myorders")
     public ResponseEntity<?> myOrders(){
         List<OrderListResDto> orderListResDtos = orderingService.myOrders();
@@ -64,4 +128,17 @@ public class OrderController {
                         .status_code(HttpStatus.OK.value())
                         .status_message("주문 취소 성공")
                         .build(),HttpStatus.OK);    }
+
+//    주문 일괄취소 : 주문id 목록 또는 조건으로 최대 1000건, 주문별 처리결과를 돌려준다.
+    @PostMapping("/cancel/bulk")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> cancelBulk(@RequestBody OrderBulkCancelReqDto orderBulkCancelReqDto){
+        OrderBulkCancelResDto orderBulkCancelResDto = orderingService.cancelBulk(orderBulkCancelReqDto);
+        return new ResponseEntity<>(
+                CommonDto.builder()
+                        .result(orderBulkCancelResDto)
+                        .status_code(HttpStatus.OK.value())
+                        .status_message("주문 일괄취소 완료")
+                        .build(),HttpStatus.OK);
+    }
 }
@@ -0,0 +1,6 @@
+package com.beyond.ordersystem.ordering.domain;
+
+// 일괄취소 요청의 주문별 처리결과
+public enum OrderCancelResult {
+    CANCELED,ALREADY_CANCELED,NOT_FOUND;
+}
@@ -14,7 +14,9 @@ import lombok.*;
 @Entity
 public class OrderDetail extends BaseTimeEntity {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+//    sequence에서 id를 미리 50개씩 받아두므로 insert 전에 id가 정해져 JDBC batch insert가 가능하다. (OrderIdSequenceInitializer)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_detail_seq_generator")
+    @SequenceGenerator(name = "order_detail_seq_generator", sequenceName = "order_detail_seq", allocationSize = 50)
     private Long id;
     private Integer quantity;
 
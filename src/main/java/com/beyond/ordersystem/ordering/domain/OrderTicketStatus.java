@@ -0,0 +1,6 @@
+package com.beyond.ordersystem.ordering.domain;
+
+// 비동기 접수 주문의 처리상태
+public enum OrderTicketStatus {
+    PENDING,COMPLETED,FAILED;
+}
@@ -15,9 +15,15 @@ import java.util.List;
 @ToString
 @Builder
 @Entity
+// admin 주문목록 조건 조회용 (상태별 최신순, 기간)
+@Table(indexes = {
+        @Index(name = "idx_ordering_status_id", columnList = "orderStatus, id"),
+        @Index(name = "idx_ordering_created_time", columnList = "createdTime")})
 public class Ordering extends BaseTimeEntity {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+//    sequence에서 id를 미리 50개씩 받아두므로 insert 전에 id가 정해져 JDBC batch insert가 가능하다. (OrderIdSequenceInitializer)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ordering_seq_generator")
+    @SequenceGenerator(name = "ordering_seq_generator", sequenceName = "ordering_seq", allocationSize = 50)
     private Long id;
     @Enumerated(EnumType.STRING)
     @Builder.Default
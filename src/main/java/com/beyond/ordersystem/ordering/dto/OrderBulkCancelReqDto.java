@@ -0,0 +1,24 @@
+package com.beyond.ordersystem.ordering.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// 주문 일괄취소 요청 : 주문id 목록을 주거나, 없으면 조건(회원, 주문기간 [from, to))에 맞는 주문중 취소되지 않은 주문을 대상으로 한다.
+// 한번에 최대 OrderingService.MAX_BULK_CANCEL건을 처리하므로 조건으로 취소할 때는 결과가 빌때까지 반복 호출한다.
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class OrderBulkCancelReqDto {
+    @Builder.Default
+    private List<Long> orderingIds = new ArrayList<>();
+    private String memberEmail;
+    private LocalDateTime from;
+    private LocalDateTime to;
+}
@@ -0,0 +1,21 @@
+package com.beyond.ordersystem.ordering.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class OrderBulkCancelResDto {
+    private int canceledCount;
+//    상품별로 되돌린 재고 종류 수
+    private int restoredProductCount;
+    @Builder.Default
+    private List<OrderCancelResultDto> results = new ArrayList<>();
+}
@@ -0,0 +1,16 @@
+package com.beyond.ordersystem.ordering.dto;
+
+import com.beyond.ordersystem.ordering.domain.OrderCancelResult;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class OrderCancelResultDto {
+    private Long orderingId;
+    private OrderCancelResult result;
+}
@@ -0,0 +1,18 @@
+package com.beyond.ordersystem.ordering.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// 주문목록 조회에서 주문상세를 엔티티 대신 상품명까지 join한 한 행으로 조회하기 위한 dto
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+public class OrderDetailRowDto {
+    private Long orderingId;
+    private Long detailId;
+    private String productName;
+    private Integer productCount;
+}
@@ -0,0 +1,25 @@
+package com.beyond.ordersystem.ordering.dto;
+
+import com.beyond.ordersystem.ordering.domain.OrderStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// 주문내역 내보내기 : 주문상세 1건당 1행 (주문/회원/상품 컬럼을 join해서 엔티티 없이 조회)
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+public class OrderExportRowDto {
+    private Long orderingId;
+    private LocalDateTime createdTime;
+    private String memberEmail;
+    private OrderStatus orderStatus;
+    private Long detailId;
+    private Long productId;
+    private String productName;
+    private Integer quantity;
+}
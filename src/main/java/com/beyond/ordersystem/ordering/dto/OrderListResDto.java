@@ -34,4 +34,14 @@ public class OrderListResDto {
                 .build();
         return dto;
     }
+
+//    상세를 따로 조회한 경우 (주문목록 조회) : 회원은 join fetch되어 있어야 한다.
+    public static OrderListResDto of(Ordering ordering, List<OrderDetailResDto> orderDetails){
+        return OrderListResDto.builder()
+                .id(ordering.getId())
+                .memberEmail(ordering.getMember().getEmail())
+                .orderStatus(ordering.getOrderStatus())
+                .orderDetails(orderDetails)
+                .build();
+    }
 }
@@ -0,0 +1,24 @@
+package com.beyond.ordersystem.ordering.dto;
+
+import com.beyond.ordersystem.ordering.domain.OrderStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+
+// 주문목록 조회 조건 (모두 선택, 기간은 [from, to))
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+public class OrderSearchDto {
+    private OrderStatus orderStatus;
+    private String memberEmail;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime from;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime to;
+}
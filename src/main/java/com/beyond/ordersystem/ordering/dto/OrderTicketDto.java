@@ -0,0 +1,24 @@
+package com.beyond.ordersystem.ordering.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 비동기 접수된 주문 : 재고 차감까지 끝난 상태로 저장 대기열에 들어간다.
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class OrderTicketDto {
+    private String ticket;
+    private String email;
+    @Builder.Default
+    private List<OrderCreateDto> lines = new ArrayList<>();
+    private StockReservationDto reservation;
+//    접수 시각 (nano), 접수부터 저장까지 걸린 시간 측정용
+    private long acceptedAt;
+}
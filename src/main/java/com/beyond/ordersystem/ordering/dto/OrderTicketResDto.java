@@ -0,0 +1,20 @@
+package com.beyond.ordersystem.ordering.dto;
+
+import com.beyond.ordersystem.ordering.domain.OrderTicketStatus;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class OrderTicketResDto {
+    private String ticket;
+    private OrderTicketStatus status;
+//    COMPLETED일때 저장된 주문id
+    private Long orderingId;
+//    FAILED일때 실패 사유
+    private String message;
+}
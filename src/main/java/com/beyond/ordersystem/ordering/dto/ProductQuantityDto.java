@@ -0,0 +1,16 @@
+package com.beyond.ordersystem.ordering.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// 상품별 합계수량 (여러 주문의 상세를 상품별로 group by 한 결과)
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+public class ProductQuantityDto {
+    private Long productId;
+    private Long quantity;
+}
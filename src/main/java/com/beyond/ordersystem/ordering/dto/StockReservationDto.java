@@ -0,0 +1,39 @@
+package com.beyond.ordersystem.ordering.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class StockReservationDto {
+//    주문의 모든 상품이 차감되었으면 true, 하나라도 실패하면 아무것도 차감되지 않고 false
+    private boolean success;
+//    예약(hold)모드일때 예약id, 주문 commit 직전에 확정한다.
+    private String holdId;
+    private boolean holdConfirmed;
+    @Builder.Default
+    private List<StockReserveLineDto> lines = new ArrayList<>();
+
+    public List<Long> failedProductIds(){
+        return lines.stream().filter(l->!l.isSufficient()).map(StockReserveLineDto::getProductId).collect(Collectors.toList());
+    }
+
+//    차감한 상품id -> 수량 (같은 상품은 이미 합쳐져 있음)
+    public Map<Long, Integer> quantityMap(){
+        Map<Long, Integer> quantityMap = new LinkedHashMap<>();
+        for (StockReserveLineDto line : lines){
+            quantityMap.put(line.getProductId(), line.getProductCount());
+        }
+        return quantityMap;
+    }
+}
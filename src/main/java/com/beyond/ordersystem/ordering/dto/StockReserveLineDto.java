@@ -0,0 +1,19 @@
+package com.beyond.ordersystem.ordering.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class StockReserveLineDto {
+    private Long productId;
+    private Integer productCount;
+//    차감 성공시 : 차감 후 남은 재고, 실패시 : 현재 재고 (redis에 재고가 없으면 -1)
+    private Long remainQuantity;
+//    재고가 주문수량 이상이었는지 여부 (전체 차감여부는 StockReservationDto.success)
+    private boolean sufficient;
+}
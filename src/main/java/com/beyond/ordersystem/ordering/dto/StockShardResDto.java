@@ -0,0 +1,20 @@
+package com.beyond.ordersystem.ordering.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class StockShardResDto {
+    private Long productId;
+//    0 이면 분할되지 않은 상품
+    private int shardCount;
+    private List<Long> shardQuantities;
+    private long totalQuantity;
+}
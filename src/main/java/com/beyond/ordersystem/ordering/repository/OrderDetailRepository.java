@@ -1,7 +1,24 @@
 package com.beyond.ordersystem.ordering.repository;
 
 import com.beyond.ordersystem.ordering.domain.OrderDetail;
+import com.beyond.ordersystem.ordering.dto.OrderDetailRowDto;
+import com.beyond.ordersystem.ordering.dto.ProductQuantityDto;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 public interface OrderDetailRepository extends JpaRepository<OrderDetail, Long> {
+
+//    여러 주문의 상세를 상품명과 함께 쿼리 1번으로 조회 (주문/상세마다 지연로딩하지 않도록)
+    @Query("select new com.beyond.ordersystem.ordering.dto.OrderDetailRowDto(d.ordering.id, d.id, p.name, d.quantity) " +
+            "from OrderDetail d join d.product p where d.ordering.id in :orderingIds order by d.id asc")
+    List<OrderDetailRowDto> findRowsByOrderingIds(@Param("orderingIds") Collection<Long> orderingIds);
+
+//    여러 주문의 상세 수량을 상품별로 합산 (주문 일괄취소시 재고 복원용)
+    @Query("select new com.beyond.ordersystem.ordering.dto.ProductQuantityDto(d.product.id, sum(d.quantity)) " +
+            "from OrderDetail d where d.ordering.id in :orderingIds group by d.product.id")
+    List<ProductQuantityDto> sumQuantitiesByOrderingIds(@Param("orderingIds") Collection<Long> orderingIds);
 }
@@ -1,14 +1,79 @@
 package com.beyond.ordersystem.ordering.repository;
 
 import com.beyond.ordersystem.member.domain.Member;
+import com.beyond.ordersystem.ordering.domain.OrderStatus;
 import com.beyond.ordersystem.ordering.domain.Ordering;
+import com.beyond.ordersystem.ordering.dto.OrderExportRowDto;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface OrderingRepository extends JpaRepository<Ordering, Long>{
 
     List<Ordering> findAllByMember(Member member);
+
+//    주문목록 조회용 : 회원을 join fetch로 같이 읽는다. (상세는 OrderDetailRepository.findRowsByOrderingIds)
+    @Query("select o from Ordering o join fetch o.member m where m.email = :email order by o.id asc")
+    List<Ordering> findAllWithMemberByEmail(@Param("email") String email);
+
+//    admin 주문목록 keyset 페이지 : 최신순(id 내림차순)으로 cursor(마지막으로 받은 id)보다 작은 id부터 limit건
+//    offset과 count 쿼리가 없으므로 주문이 아무리 쌓여도 페이지당 비용이 일정하다. 조건이 null이면 적용하지 않는다.
+    @Query("select o from Ordering o join fetch o.member m " +
+            "where (:cursor is null or o.id < :cursor) " +
+            "and (:orderStatus is null or o.orderStatus = :orderStatus) " +
+            "and (:memberEmail is null or m.email = :memberEmail) " +
+            "and (:from is null or o.createdTime >= :from) " +
+            "and (:to is null or o.createdTime < :to) " +
+            "order by o.id desc")
+    List<Ordering> findPageWithMember(@Param("cursor") Long cursor, @Param("orderStatus") OrderStatus orderStatus,
+                                      @Param("memberEmail") String memberEmail, @Param("from") LocalDateTime from,
+                                      @Param("to") LocalDateTime to, Limit limit);
+
+//    일괄취소 대상 주문을 id 순서로 잠근다. (동시에 취소하는 요청끼리 같은 주문을 두번 취소하거나 교착되지 않게)
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select o from Ordering o where o.id in :ids order by o.id asc")
+    List<Ordering> findAllForUpdate(@Param("ids") Collection<Long> ids);
+
+//    조건으로 일괄취소할 때의 대상 : 취소되지 않은 주문을 id 순으로 limit건
+    @Query("select o.id from Ordering o join o.member m " +
+            "where o.orderStatus = com.beyond.ordersystem.ordering.domain.OrderStatus.ORDERED " +
+            "and (:memberEmail is null or m.email = :memberEmail) " +
+            "and (:from is null or o.createdTime >= :from) " +
+            "and (:to is null or o.createdTime < :to) " +
+            "order by o.id asc")
+    List<Long> findOrderedIds(@Param("memberEmail") String memberEmail, @Param("from") LocalDateTime from,
+                              @Param("to") LocalDateTime to, Limit limit);
+
+//    주문 상태를 한번에 변경 (엔티티를 하나씩 수정하지 않음)
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Ordering o set o.orderStatus = :orderStatus where o.id in :ids")
+    int updateOrderStatus(@Param("ids") Collection<Long> ids, @Param("orderStatus") OrderStatus orderStatus);
+
+//    주문내역 내보내기 : cursor(주문id) 이후의 주문상세를 주문id, 상세id 순으로 앞으로만 읽는다.
+//    fetch size를 주면 드라이버가 결과를 나눠서 받아오므로 전체 결과를 메모리에 올리지 않는다. (트랜잭션 안에서 Stream을 닫을 때까지 사용)
+//    dto로 조회하므로 영속성 컨텍스트에 엔티티가 쌓이지 않는다.
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")})
+    @Query("select new com.beyond.ordersystem.ordering.dto.OrderExportRowDto(o.id, o.createdTime, m.email, o.orderStatus, d.id, p.id, p.name, d.quantity) " +
+            "from OrderDetail d join d.ordering o join o.member m join d.product p " +
+            "where o.id > :cursor " +
+            "and (:from is null or o.createdTime >= :from) " +
+            "and (:to is null or o.createdTime < :to) " +
+            "order by o.id asc, d.id asc")
+    Stream<OrderExportRowDto> streamExportRows(@Param("cursor") Long cursor, @Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
 }
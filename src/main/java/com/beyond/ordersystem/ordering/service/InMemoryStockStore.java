@@ -0,0 +1,186 @@
+package com.beyond.ordersystem.ordering.service;
+
+import com.beyond.ordersystem.common.dto.StockRabbitMqDto;
+import com.beyond.ordersystem.ordering.dto.StockReservationDto;
+import com.beyond.ordersystem.ordering.dto.StockReserveLineDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 서버 메모리에 재고를 저장하는 저장소 (stock.store=memory)
+// 서버간 공유가 되지 않으므로 단일 서버 배포나 redis 없이 돌리는 테스트 환경용이다.
+// 차감은 상품별 CAS로 처리하고, 여러 상품 중 하나라도 부족하면 이미 차감한 상품을 되돌려서 all-or-nothing을 맞춘다.
+@Component
+@ConditionalOnProperty(name = "stock.store", havingValue = "memory")
+public class InMemoryStockStore implements StockStore {
+
+    private final StockCounterTable stockTable;
+    private final StockCounterTable pendingTable;
+//    반영대기 수량을 줄인 line id -> 만료시각(ms), 유지시간이 같으므로 넣은 순서대로 만료되어 앞에서부터 정리한다.
+    private final Map<String, Long> completedLines = new LinkedHashMap<>();
+
+    public InMemoryStockStore(@Value("${stock.memory.initial-capacity:1024}") int initialCapacity) {
+        this.stockTable = new StockCounterTable(initialCapacity);
+        this.pendingTable = new StockCounterTable(initialCapacity);
+    }
+
+    @Override
+    public void makeStockQuantity(Long productId, int quantity){
+        stockTable.getOrCreate(productId).set(quantity);
+    }
+
+    @Override
+    public List<Long> makeStockQuantities(Map<Long, Integer> quantityMap, boolean overwrite, int batchSize){
+        List<Long> writtenIds = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            if (overwrite){
+                makeStockQuantity(entry.getKey(), entry.getValue());
+                writtenIds.add(entry.getKey());
+            } else if (stockTable.putIfAbsent(entry.getKey(), entry.getValue())){
+                writtenIds.add(entry.getKey());
+            }
+        }
+        clearPendingQuantities(writtenIds);
+        return writtenIds;
+    }
+
+    @Override
+    public long increaseStockQuantity(Long productId, int quantity){
+        return stockTable.getOrCreate(productId).addAndGet(quantity);
+    }
+
+    @Override
+    public void increaseStockQuantities(Map<Long, Integer> quantityMap){
+        quantityMap.forEach(this::increaseStockQuantity);
+    }
+
+    @Override
+    public StockReservationDto reserve(Map<Long, Integer> quantityMap){
+        Map<Long, Integer> taken = new LinkedHashMap<>();
+        Map<Long, Long> remainMap = new LinkedHashMap<>();
+        boolean success = true;
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            long remain = take(entry.getKey(), entry.getValue());
+            if (remain < 0){
+                success = false;
+                break;
+            }
+            taken.put(entry.getKey(), entry.getValue());
+            remainMap.put(entry.getKey(), remain);
+        }
+        if (!success){
+            for (Map.Entry<Long, Integer> entry : taken.entrySet()){
+                stockTable.get(entry.getKey()).addAndGet(entry.getValue());
+            }
+        } else {
+            addPendingQuantities(quantityMap, 1);
+        }
+
+//        실패시에는 redis 저장소와 동일하게 상품별 현재 재고(없으면 -1)를 돌려준다.
+        List<StockReserveLineDto> lines = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            long remain;
+            if (success){
+                remain = remainMap.get(entry.getKey());
+            } else {
+                AtomicInteger holder = stockTable.get(entry.getKey());
+                remain = holder == null ? -1 : holder.get();
+            }
+            lines.add(StockReserveLineDto.builder()
+                    .productId(entry.getKey())
+                    .productCount(entry.getValue())
+                    .remainQuantity(remain)
+                    .sufficient(success || remain >= entry.getValue())
+                    .build());
+        }
+        return StockReservationDto.builder()
+                .success(success)
+                .lines(lines)
+                .build();
+    }
+
+    @Override
+    public void release(Map<Long, Integer> quantityMap){
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            stockTable.getOrCreate(entry.getKey()).addAndGet(entry.getValue());
+        }
+        addPendingQuantities(quantityMap, -1);
+    }
+
+    @Override
+    public void addPendingQuantities(Map<Long, Integer> quantityMap, int sign){
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            pendingTable.getOrCreate(entry.getKey()).addAndGet(sign * entry.getValue());
+        }
+    }
+
+    @Override
+    public void completePendingLines(Map<String, StockRabbitMqDto> lines, long markerTtlMillis){
+        long now = System.currentTimeMillis();
+        synchronized (completedLines){
+            Iterator<Long> expiresAt = completedLines.values().iterator();
+            while (expiresAt.hasNext() && expiresAt.next() <= now){
+                expiresAt.remove();
+            }
+            for (Map.Entry<String, StockRabbitMqDto> entry : lines.entrySet()){
+                if (completedLines.putIfAbsent(entry.getKey(), now + markerTtlMillis) == null){
+                    pendingTable.getOrCreate(entry.getValue().getProductId()).addAndGet(-entry.getValue().getProductCount());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void clearPendingQuantities(List<Long> productIds){
+        for (Long productId : productIds){
+            AtomicInteger pending = pendingTable.get(productId);
+            if (pending != null){
+                pending.set(0);
+            }
+        }
+    }
+
+    @Override
+    public Map<Long, Long> getCommittedStockQuantities(List<Long> productIds){
+        Map<Long, Long> resultMap = new LinkedHashMap<>();
+        for (Long productId : productIds){
+            AtomicInteger remain = stockTable.get(productId);
+            if (remain == null){
+                continue;
+            }
+            AtomicInteger pending = pendingTable.get(productId);
+            resultMap.put(productId, (long) remain.get() + (pending == null ? 0 : pending.get()));
+        }
+        return resultMap;
+    }
+
+//    재고만 조회 (반영대기 수량 제외), 재고가 없는 상품이면 null
+    Integer getStockQuantity(Long productId){
+        AtomicInteger remain = stockTable.get(productId);
+        return remain == null ? null : remain.get();
+    }
+
+//    반환값 : 차감 후 재고, 부족하거나 재고가 없으면 -1
+    private long take(Long productId, int quantity){
+        AtomicInteger holder = stockTable.get(productId);
+        if (holder == null){
+            return -1;
+        }
+        while (true){
+            int remain = holder.get();
+            if (remain < quantity){
+                return -1;
+            }
+            if (holder.compareAndSet(remain, remain - quantity)){
+                return remain - quantity;
+            }
+        }
+    }
+}
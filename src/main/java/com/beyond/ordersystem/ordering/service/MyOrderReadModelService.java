@@ -0,0 +1,215 @@
+package com.beyond.ordersystem.ordering.service;
+
+import com.beyond.ordersystem.ordering.domain.OrderStatus;
+import com.beyond.ordersystem.ordering.dto.OrderListResDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// 회원별 내 주문목록 조회모델 : redis hash(my-orders:{email})에 주문id -> 주문목록 json을 저장한다.
+// 주문 생성/취소가 commit되면 조회모델에 바로 반영하고, 조회모델이 없으면(miss) db에서 읽어서 다시 만든다.
+// _built : 조회모델을 만든 시각(epoch ms), 없으면 아직 만들어지지 않은 것으로 보고 db에서 읽는다.
+// _gen : 생성/취소 반영 횟수, db에서 읽는 사이에 반영된 변경이 있으면 읽은 내용으로 덮어쓰지 않는다. (다음 조회때 다시 만든다)
+// redis 조회가 실패하면 db에서 읽어서 돌려준다.
+@Slf4j
+@Service
+public class MyOrderReadModelService {
+
+    private static final String KEY_PREFIX = "my-orders:";
+    private static final String BUILT_FIELD = "_built";
+    private static final String GEN_FIELD = "_gen";
+
+//    조회모델이 있을때만 주문을 추가한다.
+    private static final RedisScript<Long> UPSERT_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('HINCRBY', KEYS[1], '_gen', 1)\n" +
+            "if redis.call('HEXISTS', KEYS[1], '_built') == 1 then\n" +
+            "  redis.call('HSET', KEYS[1], ARGV[2], ARGV[3])\n" +
+            "end\n" +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[1])\n" +
+            "return 1", Long.class);
+//    조회모델에 있는 주문들의 상태만 바꾼다.
+    private static final RedisScript<Long> STATUS_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('HINCRBY', KEYS[1], '_gen', 1)\n" +
+            "if redis.call('HEXISTS', KEYS[1], '_built') == 1 then\n" +
+            "  for i = 3, #ARGV do\n" +
+            "    local v = redis.call('HGET', KEYS[1], ARGV[i])\n" +
+            "    if v then\n" +
+            "      redis.call('HSET', KEYS[1], ARGV[i], (string.gsub(v, '\"orderStatus\":\"[%w_]*\"', '\"orderStatus\":\"' .. ARGV[2] .. '\"', 1)))\n" +
+            "    end\n" +
+            "  end\n" +
+            "end\n" +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[1])\n" +
+            "return 1", Long.class);
+//    db에서 읽기 전의 _gen과 같을때만 조회모델을 만든다.
+    private static final RedisScript<Long> REBUILD_SCRIPT = new DefaultRedisScript<>(
+            "local gen = redis.call('HGET', KEYS[1], '_gen') or ''\n" +
+            "if gen ~= ARGV[1] then return 0 end\n" +
+            "redis.call('HSET', KEYS[1], '_built', ARGV[3])\n" +
+            "for i = 4, #ARGV, 2 do\n" +
+            "  redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])\n" +
+            "end\n" +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[2])\n" +
+            "return 1", Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final ObjectMapper objectMapper;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter fallbackCounter;
+    private final Counter applyFailedCounter;
+    private final Timer applyLagTimer;
+    private final DistributionSummary ageSummary;
+
+    @Value("${ordering.read-model.enabled:true}")
+    private boolean enabled;
+    @Value("${ordering.read-model.ttl-seconds:86400}")
+    private long ttlSeconds;
+
+    public MyOrderReadModelService(@Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate, ObjectMapper objectMapper,
+                                   MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.hitCounter = meterRegistry.counter("ordering.read-model.hit");
+        this.missCounter = meterRegistry.counter("ordering.read-model.miss");
+        this.fallbackCounter = meterRegistry.counter("ordering.read-model.fallback");
+        this.applyFailedCounter = meterRegistry.counter("ordering.read-model.apply.failed");
+        this.applyLagTimer = Timer.builder("ordering.read-model.apply.lag")
+                .description("주문 저장부터 조회모델 반영까지 걸린 시간")
+                .register(meterRegistry);
+        this.ageSummary = DistributionSummary.builder("ordering.read-model.age")
+                .description("조회시 조회모델을 db에서 다시 만든 뒤 지난 시간(초)")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+//    loader : 조회모델이 없거나 redis를 쓸 수 없을때 db에서 읽는 함수
+    public List<OrderListResDto> myOrders(String email, Function<String, List<OrderListResDto>> loader){
+        if (!enabled){
+            return loader.apply(email);
+        }
+        String key = KEY_PREFIX + email;
+        Map<Object, Object> entries;
+        try {
+            entries = redisTemplate.opsForHash().entries(key);
+            if (entries.containsKey(BUILT_FIELD)){
+                List<OrderListResDto> orderListResDtos = read(entries);
+                hitCounter.increment();
+                ageSummary.record((System.currentTimeMillis() - Long.parseLong((String) entries.get(BUILT_FIELD))) / 1000.0);
+                return orderListResDtos;
+            }
+        } catch (Exception e){
+            fallbackCounter.increment();
+            log.error("내 주문목록 조회모델 조회 실패 {} : {}", email, e.getMessage());
+            return loader.apply(email);
+        }
+        missCounter.increment();
+        Object gen = entries.get(GEN_FIELD);
+        List<OrderListResDto> orderListResDtos = loader.apply(email);
+        rebuild(key, gen == null ? "" : (String) gen, orderListResDtos);
+        return orderListResDtos;
+    }
+
+//    주문 생성 : commit 후 조회모델에 추가
+    public void registerCreated(String email, OrderListResDto orderListResDto){
+        if (!enabled){
+            return;
+        }
+        String key = KEY_PREFIX + email;
+        afterCommit(List.of(key), () -> {
+            String json = objectMapper.writeValueAsString(orderListResDto);
+            redisTemplate.execute(UPSERT_SCRIPT, List.of(key),
+                    String.valueOf(Duration.ofSeconds(ttlSeconds).toMillis()), String.valueOf(orderListResDto.getId()), json);
+        });
+    }
+
+//    주문 취소 : commit 후 회원별로 조회모델의 주문 상태를 바꾼다.
+    public void registerStatusChanged(Map<String, ? extends Collection<Long>> orderingIdsByEmail, OrderStatus orderStatus){
+        if (!enabled || orderingIdsByEmail.isEmpty()){
+            return;
+        }
+        List<String> keys = orderingIdsByEmail.keySet().stream().map(email -> KEY_PREFIX + email).toList();
+        afterCommit(keys, () -> orderingIdsByEmail.forEach((email, orderingIds) -> {
+            List<String> args = new ArrayList<>(orderingIds.size() + 2);
+            args.add(String.valueOf(Duration.ofSeconds(ttlSeconds).toMillis()));
+            args.add(orderStatus.name());
+            orderingIds.forEach(id -> args.add(String.valueOf(id)));
+            redisTemplate.execute(STATUS_SCRIPT, List.of(KEY_PREFIX + email), args.toArray());
+        }));
+    }
+
+    private List<OrderListResDto> read(Map<Object, Object> entries) throws Exception {
+        List<OrderListResDto> orderListResDtos = new ArrayList<>(entries.size());
+        for (Map.Entry<Object, Object> entry : entries.entrySet()){
+            if (((String) entry.getKey()).startsWith("_")){
+                continue;
+            }
+            orderListResDtos.add(objectMapper.readValue((String) entry.getValue(), OrderListResDto.class));
+        }
+//        db 조회와 같은 순서 (주문id 오름차순)
+        orderListResDtos.sort(Comparator.comparing(OrderListResDto::getId));
+        return orderListResDtos;
+    }
+
+    private void rebuild(String key, String gen, List<OrderListResDto> orderListResDtos){
+        try {
+            List<String> args = new ArrayList<>(orderListResDtos.size() * 2 + 3);
+            args.add(gen);
+            args.add(String.valueOf(Duration.ofSeconds(ttlSeconds).toMillis()));
+            args.add(String.valueOf(System.currentTimeMillis()));
+            for (OrderListResDto dto : orderListResDtos){
+                args.add(String.valueOf(dto.getId()));
+                args.add(objectMapper.writeValueAsString(dto));
+            }
+            redisTemplate.execute(REBUILD_SCRIPT, List.of(key), args.toArray());
+        } catch (Exception e){
+            log.error("내 주문목록 조회모델 생성 실패 {} : {}", key, e.getMessage());
+        }
+    }
+
+//    반영이 실패하면 조회모델을 지워서 다음 조회때 db에서 다시 만들게 한다.
+    private void afterCommit(List<String> keys, ReadModelUpdate update){
+        long savedAt = System.nanoTime();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                try {
+                    update.apply();
+                    applyLagTimer.record(Duration.ofNanos(System.nanoTime() - savedAt));
+                } catch (Exception e){
+                    applyFailedCounter.increment();
+                    log.error("내 주문목록 조회모델 반영 실패 {} : {}", keys, e.getMessage());
+                    try {
+                        redisTemplate.delete(keys);
+                    } catch (Exception ignored){
+//                        redis를 쓸 수 없으면 ttl로 정리된다.
+                    }
+                }
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface ReadModelUpdate {
+        void apply() throws Exception;
+    }
+}
@@ -0,0 +1,149 @@
+package com.beyond.ordersystem.ordering.service;
+
+import com.beyond.ordersystem.ordering.dto.OrderExportRowDto;
+import com.beyond.ordersystem.ordering.repository.OrderingRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+// 주문내역 내보내기 : 주문을 id 순으로 앞으로만 읽으면서 응답 stream에 바로 쓴다. (전체 목록을 메모리에 만들지 않음)
+// ndjson : 주문 1건 = 1줄 (상세는 lines 배열), csv : 주문상세 1건 = 1행
+// 중간에 끊기면 마지막으로 온전히 받은 주문id를 cursor로 넘겨서 그 다음 주문부터 다시 받는다.
+// (csv는 마지막 주문의 행이 일부만 왔을 수 있으므로 그 주문의 행은 버리고 직전 주문id로 이어받는다.)
+@Slf4j
+@Service
+public class OrderExportService {
+
+    public static final String FORMAT_NDJSON = "ndjson";
+    public static final String FORMAT_CSV = "csv";
+    private static final String CSV_HEADER = "orderingId,createdTime,memberEmail,orderStatus,detailId,productId,productName,quantity";
+//    이 주문 수마다 응답을 flush
+    private static final int FLUSH_INTERVAL = 500;
+
+    private final OrderingRepository orderingRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+
+    public OrderExportService(OrderingRepository orderingRepository, ObjectMapper objectMapper, PlatformTransactionManager transactionManager) {
+        this.orderingRepository = orderingRepository;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    public static void checkFormat(String format){
+        if (!FORMAT_NDJSON.equals(format) && !FORMAT_CSV.equals(format)){
+            throw new IllegalArgumentException("지원하지 않는 형식입니다 : " + format);
+        }
+    }
+
+//    반환값 : 내보낸 주문 수
+    public long export(String format, Long cursor, LocalDateTime from, LocalDateTime to, OutputStream outputStream){
+        checkFormat(format);
+        Long exported = transactionTemplate.execute(status -> {
+            try (Stream<OrderExportRowDto> rows = orderingRepository.streamExportRows(cursor == null ? 0L : cursor, from, to)){
+                return FORMAT_NDJSON.equals(format) ? writeNdjson(rows.iterator(), outputStream) : writeCsv(rows.iterator(), outputStream);
+            } catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        });
+        log.info("주문내역 내보내기 {}건 ({}, cursor={})", exported, format, cursor);
+        return exported == null ? 0 : exported;
+    }
+
+    private long writeNdjson(Iterator<OrderExportRowDto> rows, OutputStream outputStream) throws IOException {
+        long orders = 0;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)){
+            generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+            generator.setPrettyPrinter(new MinimalPrettyPrinter("\n"));
+            Long currentId = null;
+            while (rows.hasNext()){
+                OrderExportRowDto row = rows.next();
+                if (!row.getOrderingId().equals(currentId)){
+                    if (currentId != null){
+                        endOrder(generator);
+                        if (++orders % FLUSH_INTERVAL == 0){
+                            generator.flush();
+                        }
+                    }
+                    currentId = row.getOrderingId();
+                    generator.writeStartObject();
+                    generator.writeNumberField("orderingId", row.getOrderingId());
+                    generator.writeStringField("createdTime", String.valueOf(row.getCreatedTime()));
+                    generator.writeStringField("memberEmail", row.getMemberEmail());
+                    generator.writeStringField("orderStatus", String.valueOf(row.getOrderStatus()));
+                    generator.writeArrayFieldStart("lines");
+                }
+                generator.writeStartObject();
+                generator.writeNumberField("detailId", row.getDetailId());
+                generator.writeNumberField("productId", row.getProductId());
+                generator.writeStringField("productName", row.getProductName());
+                generator.writeNumberField("quantity", row.getQuantity());
+                generator.writeEndObject();
+            }
+            if (currentId != null){
+                endOrder(generator);
+                orders++;
+            }
+//            마지막 줄도 개행으로 끝낸다.
+            generator.writeRaw('\n');
+        }
+        return orders;
+    }
+
+    private static void endOrder(JsonGenerator generator) throws IOException {
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private long writeCsv(Iterator<OrderExportRowDto> rows, OutputStream outputStream) throws IOException {
+        long orders = 0;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        writer.write(CSV_HEADER);
+        writer.write('\n');
+        Long currentId = null;
+        while (rows.hasNext()){
+            OrderExportRowDto row = rows.next();
+            if (!row.getOrderingId().equals(currentId)){
+                if (currentId != null && ++orders % FLUSH_INTERVAL == 0){
+                    writer.flush();
+                }
+                currentId = row.getOrderingId();
+            }
+            writer.write(row.getOrderingId() + "," + row.getCreatedTime() + "," + csv(row.getMemberEmail()) + "," + row.getOrderStatus() + ","
+                    + row.getDetailId() + "," + row.getProductId() + "," + csv(row.getProductName()) + "," + row.getQuantity());
+            writer.write('\n');
+        }
+        if (currentId != null){
+            orders++;
+        }
+        writer.flush();
+        return orders;
+    }
+
+//    쉼표, 따옴표, 개행이 있으면 따옴표로 감싸고 따옴표는 두번 쓴다.
+    private static String csv(String value){
+        if (value == null){
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0){
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+}
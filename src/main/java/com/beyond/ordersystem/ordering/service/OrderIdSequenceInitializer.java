@@ -0,0 +1,50 @@
+package com.beyond.ordersystem.ordering.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+// 주문/주문상세/outbox id sequence 준비 (IDENTITY -> SEQUENCE 전환)
+// 기존 테이블은 auto_increment로 id가 이미 쌓여있으므로, sequence가 없으면 만들고 기존 최대 id보다 뒤에서 시작하게 맞춘다.
+// hibernate pooled 방식은 sequence 값 v를 받으면 (v - allocationSize, v] 구간의 id를 쓰므로, 최대 id + allocationSize 부터 시작시킨다.
+// 웹 요청을 받기 전에(빈 초기화 시점) 실행되고, 이미 앞서 있으면 아무것도 하지 않는다.
+@Slf4j
+@Component
+@DependsOn("entityManagerFactory")
+public class OrderIdSequenceInitializer {
+
+//    엔티티의 @SequenceGenerator allocationSize와 같아야 한다.
+    public static final int ALLOCATION_SIZE = 50;
+//    테이블 -> sequence
+    private static final Map<String, String> SEQUENCE_MAP = Map.of(
+            "ordering", "ordering_seq",
+            "order_detail", "order_detail_seq",
+            "outbox_event", "outbox_event_seq");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public OrderIdSequenceInitializer(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void init(){
+        SEQUENCE_MAP.forEach(this::align);
+    }
+
+    private void align(String table, String sequence){
+        jdbcTemplate.execute("create sequence if not exists " + sequence + " start with 1 increment by " + ALLOCATION_SIZE);
+        Long maxId = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from " + table, Long.class);
+//        다음에 발급될 구간의 시작이 기존 id와 겹치는지 확인 (nextval을 호출하지 않고 조회만)
+        Long nextValue = jdbcTemplate.queryForObject("select next_not_cached_value from " + sequence, Long.class);
+        if (nextValue - ALLOCATION_SIZE < maxId){
+            long restartValue = maxId + ALLOCATION_SIZE;
+            jdbcTemplate.execute("alter sequence " + sequence + " restart with " + restartValue);
+            log.info("{} sequence를 기존 최대 id {} 이후로 조정 (restart {})", sequence, maxId, restartValue);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.beyond.ordersystem.ordering.service;
+
+import com.beyond.ordersystem.common.dto.CommonErrorDto;
+import com.beyond.ordersystem.ordering.dto.OrderCreateDto;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// 주문 생성 Idempotency-Key 처리
+// 첫 요청이 redis(order-idem:{email}:{key})에 PENDING으로 키를 선점하고 주문을 처리한 뒤, 응답(상태코드, body)을 DONE으로 저장한다.
+// 같은 키로 다시 온 요청은 주문을 다시 만들지 않고 저장된 응답을 돌려준다. (처리중이면 잠시 기다렸다가 결과를 돌려주고, 그래도 안끝나면 409)
+// 처리 중 예외가 나면 주문/재고는 롤백되므로 키를 지워서 같은 키로 다시 시도할 수 있게 한다.
+// PENDING은 짧은 ttl로 잡아서 처리중에 서버가 죽어도 키가 오래 묶이지 않게 하고, 처리중에는 주기적으로 ttl을 연장한다.
+// 선점할때 만든 token을 같이 저장하고, 연장/완료/해제는 token이 같을때만 하여 다른 요청이 다시 선점한 키를 건드리지 않는다.
+@Slf4j
+@Service
+public class OrderIdempotencyService {
+
+    private static final String KEY_PREFIX = "order-idem:";
+    private static final String STATE_PENDING = "PENDING";
+    private static final String STATE_DONE = "DONE";
+    private static final int MAX_KEY_LENGTH = 255;
+//    키가 없을때만 PENDING으로 선점한다.
+    private static final RedisScript<Long> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 1 then return 0 end\n" +
+            "redis.call('HSET', KEYS[1], 'state', ARGV[1], 'fingerprint', ARGV[2], 'token', ARGV[3])\n" +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[4])\n" +
+            "return 1", Long.class);
+//    내가 선점한 PENDING이면 ttl 연장
+    private static final RedisScript<Long> EXTEND_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HGET', KEYS[1], 'token') ~= ARGV[1] or redis.call('HGET', KEYS[1], 'state') ~= 'PENDING' then return 0 end\n" +
+            "return redis.call('PEXPIRE', KEYS[1], ARGV[2])", Long.class);
+//    내가 선점한 PENDING이면 응답을 저장하고 DONE으로 바꾼다. (fingerprint는 그대로 유지)
+    private static final RedisScript<Long> COMPLETE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HGET', KEYS[1], 'token') ~= ARGV[1] then return 0 end\n" +
+            "redis.call('HSET', KEYS[1], 'state', 'DONE', 'status', ARGV[2], 'body', ARGV[3])\n" +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[4])\n" +
+            "return 1", Long.class);
+//    내가 선점한 키일때만 삭제
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HGET', KEYS[1], 'token') == ARGV[1] then return redis.call('DEL', KEYS[1]) end\n" +
+            "return 0", Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final ObjectMapper objectMapper;
+
+    private final Counter claimedCounter;
+    private final Counter replayedCounter;
+    private final Counter conflictCounter;
+    private final Counter lostClaimCounter;
+//    처리중인 PENDING 키의 ttl 연장
+    private final ScheduledExecutorService extendExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "order-idempotency-extend");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${ordering.idempotency.ttl-seconds:86400}")
+    private long ttlSeconds;
+    @Value("${ordering.idempotency.pending-ttl-millis:30000}")
+    private long pendingTtlMillis;
+    @Value("${ordering.idempotency.wait-millis:5000}")
+    private long waitMillis;
+    @Value("${ordering.idempotency.poll-millis:50}")
+    private long pollMillis;
+
+    public OrderIdempotencyService(@Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate, ObjectMapper objectMapper,
+                                   MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.claimedCounter = meterRegistry.counter("ordering.idempotency.claimed");
+        this.replayedCounter = meterRegistry.counter("ordering.idempotency.replayed");
+        this.conflictCounter = meterRegistry.counter("ordering.idempotency.conflict");
+        this.lostClaimCounter = meterRegistry.counter("ordering.idempotency.lost.claim");
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        extendExecutor.shutdownNow();
+    }
+
+    public ResponseEntity<?> execute(String idempotencyKey, List<OrderCreateDto> orderCreateDtos, Supplier<ResponseEntity<?>> action){
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH){
+            throw new IllegalArgumentException("Idempotency-Key는 1~" + MAX_KEY_LENGTH + "자여야 합니다.");
+        }
+        String email = SecurityContextHolder.getContext().getAuthentication().getName();
+        String key = KEY_PREFIX + email + ":" + idempotencyKey;
+        String fingerprint = fingerprint(orderCreateDtos);
+        long deadline = System.currentTimeMillis() + waitMillis;
+        String token = UUID.randomUUID().toString();
+        while (true){
+            Long claimed = redisTemplate.execute(CLAIM_SCRIPT, List.of(key), STATE_PENDING, fingerprint, token, String.valueOf(pendingTtlMillis));
+            if (claimed != null && claimed == 1L){
+                claimedCounter.increment();
+                return run(key, token, action);
+            }
+            Map<Object, Object> entries = redisTemplate.opsForHash().entries(key);
+//            확인하는 사이에 만료되었거나 실패해서 지워진 경우 다시 선점
+            if (entries.isEmpty()){
+                continue;
+            }
+            if (!fingerprint.equals(entries.get("fingerprint"))){
+                throw new IllegalArgumentException("다른 주문 요청에 이미 사용된 Idempotency-Key입니다.");
+            }
+            if (STATE_DONE.equals(entries.get("state"))){
+                replayedCounter.increment();
+                return replay(entries);
+            }
+            if (System.currentTimeMillis() > deadline){
+                conflictCounter.increment();
+                return new ResponseEntity<>(new CommonErrorDto(HttpStatus.CONFLICT.value(), "같은 Idempotency-Key의 주문을 처리중입니다. 잠시 후 다시 시도해주세요."), HttpStatus.CONFLICT);
+            }
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalArgumentException("주문 처리결과를 기다리다 중단되었습니다.");
+            }
+        }
+    }
+
+    private ResponseEntity<?> run(String key, String token, Supplier<ResponseEntity<?>> action){
+//        ttl의 1/3마다 연장하여 주문 처리가 ttl보다 오래 걸려도 다른 요청이 다시 선점하지 못하게 한다.
+        long extendMillis = Math.max(1, pendingTtlMillis / 3);
+        ScheduledFuture<?> extender = extendExecutor.scheduleAtFixedRate(() -> {
+            try {
+                redisTemplate.execute(EXTEND_SCRIPT, List.of(key), token, String.valueOf(pendingTtlMillis));
+            } catch (Exception e){
+                log.warn("주문 idempotency ttl 연장 실패 key={} : {}", key, e.getMessage());
+            }
+        }, extendMillis, extendMillis, TimeUnit.MILLISECONDS);
+        ResponseEntity<?> response;
+        try {
+            response = action.get();
+        } catch (RuntimeException e){
+            extender.cancel(false);
+            redisTemplate.execute(RELEASE_SCRIPT, List.of(key), token);
+            throw e;
+        }
+        extender.cancel(false);
+//        응답 저장이 실패해도 주문은 이미 만들어졌으므로 응답은 그대로 돌려준다. (PENDING은 ttl로 정리)
+        try {
+            Long completed = redisTemplate.execute(COMPLETE_SCRIPT, List.of(key), token,
+                    String.valueOf(response.getStatusCode().value()), objectMapper.writeValueAsString(response.getBody()),
+                    String.valueOf(Duration.ofSeconds(ttlSeconds).toMillis()));
+            if (completed == null || completed != 1L){
+//                연장에 실패해서 키가 만료된 경우 : 다른 요청이 선점했을 수 있으므로 덮어쓰지 않는다.
+                lostClaimCounter.increment();
+                log.error("주문 idempotency 키를 잃어버려 응답을 저장하지 못함 key={}", key);
+            }
+        } catch (Exception e){
+            log.error("주문 idempotency 응답 저장 실패 key={} : {}", key, e.getMessage());
+        }
+        return response;
+    }
+
+    private ResponseEntity<?> replay(Map<Object, Object> entries){
+        try {
+            Object body = objectMapper.readTree((String) entries.get("body"));
+            return ResponseEntity.status(Integer.parseInt((String) entries.get("status")))
+                    .header("Idempotent-Replayed", "true")
+                    .body(body);
+        } catch (JsonProcessingException e){
+            throw new IllegalArgumentException("저장된 주문 응답을 읽을 수 없습니다.");
+        }
+    }
+
+//    같은 키로 다른 내용의 주문을 보내면 거절하기 위한 요청 내용 hash
+    private String fingerprint(List<OrderCreateDto> orderCreateDtos){
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(objectMapper.writeValueAsString(orderCreateDtos).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (JsonProcessingException | NoSuchAlgorithmException e){
+            throw new IllegalArgumentException("주문 요청을 읽을 수 없습니다.");
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.beyond.ordersystem.ordering.service;
+
+import com.beyond.ordersystem.ordering.domain.OrderTicketStatus;
+import com.beyond.ordersystem.ordering.dto.OrderCreateDto;
+import com.beyond.ordersystem.ordering.dto.OrderTicketDto;
+import com.beyond.ordersystem.ordering.dto.OrderTicketResDto;
+import com.beyond.ordersystem.ordering.dto.StockReservationDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 비동기 주문 접수 (ordering.async.enabled=true)
+// 요청 스레드는 입력 확인과 redis 재고 차감만 하고, 크기가 제한된 대기열에 넣은 뒤 바로 접수번호(ticket)를 돌려준다.
+// 저장 스레드들이 대기열에서 여러 주문을 모아 한 트랜잭션으로 저장하고, 처리결과는 redis(order-ticket:{ticket})에 남겨 조회하게 한다.
+// 대기열이 가득 차면 재고를 차감하지 않고 바로 거절(503)하여 요청이 쌓이지 않게 한다.
+// batch 저장이 실패하면 주문 단위로 다시 저장하고, 그래도 실패한 주문만 재고를 되돌리고 FAILED로 남긴다.
+// 대기열은 메모리에만 있으므로 접수(202) 후 저장 전에 서버가 죽으면 그 주문은 저장되지 않는다. (ticket은 TTL까지 PENDING으로 남음)
+// 이때 차감한 재고가 돌아오도록 예약(hold)모드(stock.hold.enabled=true, 임대모드 off)에서만 시작하고, 저장되지 않은 접수 건수는 ordering.intake.unpersisted로 본다.
+// 분할된 상품은 예약으로 기록되지 않으므로 서버 장애시 재고 점검(StockReconcileService)으로 맞춘다.
+@Slf4j
+@Service
+public class OrderIntakeService {
+
+    private static final String TICKET_KEY_PREFIX = "order-ticket:";
+
+    private final OrderingService orderingService;
+    private final StockInventoryService stockInventoryService;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final BlockingQueue<OrderTicketDto> intakeQueue;
+
+    private final Timer latencyTimer;
+    private final Counter acceptedCounter;
+    private final Counter rejectedCounter;
+    private final Counter failedCounter;
+//    접수했지만 아직 저장(또는 실패처리)되지 않은 주문 수 : 서버가 죽으면 잃어버리는 주문
+    private final AtomicInteger unpersistedCount = new AtomicInteger();
+
+    @Value("${ordering.async.enabled:false}")
+    private boolean enabled;
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+    @Value("${ordering.async.workers:2}")
+    private int workerCount;
+    @Value("${ordering.async.batch-size:50}")
+    private int batchSize;
+    @Value("${ordering.async.ticket-ttl-seconds:3600}")
+    private long ticketTtlSeconds;
+    @Value("${ordering.async.shutdown-timeout-millis:10000}")
+    private long shutdownTimeoutMillis;
+
+    private volatile boolean running;
+    private final List<Thread> workers = new ArrayList<>();
+
+    public OrderIntakeService(OrderingService orderingService, StockInventoryService stockInventoryService,
+                              @Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate, MeterRegistry meterRegistry,
+                              @Value("${ordering.async.queue-capacity:10000}") int queueCapacity) {
+        this.orderingService = orderingService;
+        this.stockInventoryService = stockInventoryService;
+        this.redisTemplate = redisTemplate;
+        this.intakeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.latencyTimer = Timer.builder("ordering.intake.latency")
+                .description("주문 접수부터 저장 commit까지 걸린 시간")
+                .register(meterRegistry);
+        this.acceptedCounter = meterRegistry.counter("ordering.intake.accepted");
+        this.rejectedCounter = meterRegistry.counter("ordering.intake.rejected");
+        this.failedCounter = meterRegistry.counter("ordering.intake.failed");
+        meterRegistry.gauge("ordering.intake.queue.size", intakeQueue, BlockingQueue::size);
+        meterRegistry.gauge("ordering.intake.unpersisted", unpersistedCount);
+    }
+
+    @PostConstruct
+    public void start(){
+        if (!enabled){
+            return;
+        }
+//        예약이 없으면 접수 후 저장 전에 서버가 죽었을때 차감한 재고가 돌아오지 않는다.
+        if (!stockInventoryService.isHoldEnabled()){
+            throw new IllegalStateException("비동기 주문 접수(ordering.async.enabled)는 재고 예약모드(stock.hold.enabled=true, stock.lease.enabled=false)에서만 사용할 수 있습니다.");
+        }
+        running = true;
+        for (int i = 0; i < workerCount; i++){
+//            저장 스레드는 대부분 jdbc 대기이므로 virtual thread 모드에서는 virtual thread로 띄운다.
+            Thread.Builder builder = virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform().daemon();
+            workers.add(builder.name("order-intake-" + i).start(this::run));
+        }
+    }
+
+//    종료시 대기열에 남은 주문을 최대한 저장하고, 저장하지 못한 주문은 재고를 되돌리고 실패처리한다.
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!running){
+            return;
+        }
+        running = false;
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+        for (Thread worker : workers){
+            worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+        OrderTicketDto ticket;
+        while ((ticket = intakeQueue.poll()) != null){
+            fail(ticket, "서버 종료로 주문이 저장되지 않았습니다.");
+        }
+    }
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    public OrderTicketResDto submit(List<OrderCreateDto> orderCreateDtoList){
+        if (orderCreateDtoList == null || orderCreateDtoList.isEmpty()){
+            throw new IllegalArgumentException("주문 상품이 없습니다.");
+        }
+        for (OrderCreateDto dto : orderCreateDtoList){
+            if (dto.getProductId() == null){
+                throw new IllegalArgumentException("상품id가 없습니다.");
+            }
+        }
+//        재고를 차감한 뒤에 거절하지 않도록 먼저 자리를 확인한다. (동시에 들어온 요청으로 offer가 실패할 수는 있음)
+        if (!running || intakeQueue.remainingCapacity() == 0){
+            rejectedCounter.increment();
+            throw new RejectedExecutionException("주문 접수가 많아 잠시 후 다시 시도해주세요.");
+        }
+        String email = SecurityContextHolder.getContext().getAuthentication().getName();
+        StockReservationDto reservation = stockInventoryService.reserveStockQuantities(orderCreateDtoList);
+        if (!reservation.isSuccess()){
+            throw new IllegalArgumentException("재고부족 : " + reservation.failedProductIds());
+        }
+        OrderTicketDto ticket = OrderTicketDto.builder()
+                .ticket(UUID.randomUUID().toString())
+                .email(email)
+                .lines(orderCreateDtoList)
+                .reservation(reservation)
+                .acceptedAt(System.nanoTime())
+                .build();
+        boolean queued = false;
+        try {
+//            저장 스레드가 결과를 쓰기 전에 PENDING을 먼저 남긴다.
+            saveStatus(ticket, OrderTicketStatus.PENDING, null, null);
+            queued = intakeQueue.offer(ticket);
+        } finally {
+            if (!queued){
+                stockInventoryService.releaseStockQuantities(reservation);
+                redisTemplate.delete(TICKET_KEY_PREFIX + ticket.getTicket());
+            }
+        }
+        if (!queued){
+            rejectedCounter.increment();
+            throw new RejectedExecutionException("주문 접수가 많아 잠시 후 다시 시도해주세요.");
+        }
+        unpersistedCount.incrementAndGet();
+        acceptedCounter.increment();
+        return OrderTicketResDto.builder()
+                .ticket(ticket.getTicket())
+                .status(OrderTicketStatus.PENDING)
+                .build();
+    }
+
+//    본인 주문이거나 admin만 조회 가능 (다른 사람의 접수번호는 없는 번호와 같이 응답)
+    public OrderTicketResDto getStatus(String ticket){
+        Map<Object, Object> entries = redisTemplate.opsForHash().entries(TICKET_KEY_PREFIX + ticket);
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        boolean admin = authentication.getAuthorities().stream().anyMatch(a -> "ROLE_ADMIN".equals(a.getAuthority()));
+        if (entries.isEmpty() || (!admin && !authentication.getName().equals(entries.get("email")))){
+            throw new NoSuchElementException("존재하지 않는 주문 접수번호입니다.");
+        }
+        Object orderingId = entries.get("orderingId");
+        return OrderTicketResDto.builder()
+                .ticket(ticket)
+                .status(OrderTicketStatus.valueOf((String) entries.get("status")))
+                .orderingId(orderingId == null ? null : Long.parseLong((String) orderingId))
+                .message((String) entries.get("message"))
+                .build();
+    }
+
+    private void run(){
+        List<OrderTicketDto> batch = new ArrayList<>(batchSize);
+        while (running || !intakeQueue.isEmpty()){
+            try {
+                OrderTicketDto first = intakeQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null){
+                    continue;
+                }
+                batch.add(first);
+                intakeQueue.drainTo(batch, batchSize - 1);
+                persist(batch);
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e){
+                log.error("주문 저장 스레드 오류 : {}", e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void persist(List<OrderTicketDto> batch){
+        try {
+            List<Long> orderingIds = orderingService.createReserved(batch);
+            for (int i = 0; i < batch.size(); i++){
+                complete(batch.get(i), orderingIds.get(i));
+            }
+            return;
+        } catch (RuntimeException e){
+            if (batch.size() == 1){
+                fail(batch.get(0), e.getMessage());
+                return;
+            }
+            log.warn("주문 batch 저장 실패, 주문 단위로 다시 저장 ({}건) : {}", batch.size(), e.getMessage());
+        }
+        for (OrderTicketDto ticket : batch){
+            try {
+                complete(ticket, orderingService.createReserved(List.of(ticket)).get(0));
+            } catch (RuntimeException e){
+                fail(ticket, e.getMessage());
+            }
+        }
+    }
+
+    private void complete(OrderTicketDto ticket, Long orderingId){
+        unpersistedCount.decrementAndGet();
+        latencyTimer.record(Duration.ofNanos(System.nanoTime() - ticket.getAcceptedAt()));
+        try {
+            saveStatus(ticket, OrderTicketStatus.COMPLETED, orderingId, null);
+        } catch (Exception e){
+            log.error("주문 접수결과 저장 실패 ticket={} orderingId={} : {}", ticket.getTicket(), orderingId, e.getMessage());
+        }
+    }
+
+    private void fail(OrderTicketDto ticket, String message){
+        unpersistedCount.decrementAndGet();
+        failedCounter.increment();
+        log.error("접수된 주문 저장 실패 ticket={} : {}", ticket.getTicket(), message);
+        try {
+            stockInventoryService.releaseStockQuantities(ticket.getReservation());
+            saveStatus(ticket, OrderTicketStatus.FAILED, null, message);
+        } catch (Exception e){
+            log.error("실패한 주문의 재고 반환 실패 ticket={} : {}", ticket.getTicket(), e.getMessage());
+        }
+    }
+
+    private void saveStatus(OrderTicketDto ticket, OrderTicketStatus status, Long orderingId, String message){
+        String key = TICKET_KEY_PREFIX + ticket.getTicket();
+        Map<String, String> entries = new HashMap<>();
+        entries.put("email", ticket.getEmail());
+        entries.put("status", status.name());
+        if (orderingId != null){
+            entries.put("orderingId", String.valueOf(orderingId));
+        }
+        if (message != null){
+            entries.put("message", message);
+        }
+        redisTemplate.opsForHash().putAll(key, entries);
+        redisTemplate.expire(key, Duration.ofSeconds(ticketTtlSeconds));
+    }
+}
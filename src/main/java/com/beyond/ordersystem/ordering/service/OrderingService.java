@@ -1,39 +1,72 @@
 package com.beyond.ordersystem.ordering.service;
 
-import com.beyond.ordersystem.common.service.SseAlarmService;
-import com.beyond.ordersystem.common.service.StockRabbitMqService;
+import com.beyond.ordersystem.common.domain.OutboxEventType;
+import com.beyond.ordersystem.common.dto.CursorPageDto;
+import com.beyond.ordersystem.common.dto.SseMessageDto;
+import com.beyond.ordersystem.common.dto.StockOrderEventDto;
+import com.beyond.ordersystem.common.dto.StockRabbitMqDto;
+import com.beyond.ordersystem.common.service.OutboxService;
 import com.beyond.ordersystem.member.domain.Member;
 import com.beyond.ordersystem.member.repository.MemberRepository;
+import com.beyond.ordersystem.ordering.domain.OrderCancelResult;
 import com.beyond.ordersystem.ordering.domain.OrderDetail;
+import com.beyond.ordersystem.ordering.domain.OrderStatus;
 import com.beyond.ordersystem.ordering.domain.Ordering;
+import com.beyond.ordersystem.ordering.dto.OrderBulkCancelReqDto;
+import com.beyond.ordersystem.ordering.dto.OrderBulkCancelResDto;
+import com.beyond.ordersystem.ordering.dto.OrderCancelResultDto;
 import com.beyond.ordersystem.ordering.dto.OrderCreateDto;
+import com.beyond.ordersystem.ordering.dto.OrderDetailResDto;
+import com.beyond.ordersystem.ordering.dto.OrderDetailRowDto;
 import com.beyond.ordersystem.ordering.dto.OrderListResDto;
+import com.beyond.ordersystem.ordering.dto.OrderSearchDto;
+import com.beyond.ordersystem.ordering.dto.OrderTicketDto;
+import com.beyond.ordersystem.ordering.dto.ProductQuantityDto;
+import com.beyond.ordersystem.ordering.dto.StockReservationDto;
 import com.beyond.ordersystem.ordering.repository.OrderDetailRepository;
 import com.beyond.ordersystem.ordering.repository.OrderingRepository;
 import com.beyond.ordersystem.product.domain.Product;
 import com.beyond.ordersystem.product.repository.ProductRepository;
+import com.beyond.ordersystem.product.repository.ProductStockJdbcRepository;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 @Transactional
 public class OrderingService {
+//    주문목록 조회시 in 쿼리 1번에 넣을 주문 수
+    private static final int LIST_CHUNK_SIZE = 1000;
+    private static final int MAX_PAGE_SIZE = 100;
+    public static final int MAX_BULK_CANCEL = 1000;
+
     private final OrderingRepository orderingRepository;
     private final MemberRepository memberRepository;
     private final ProductRepository productRepository;
     private final OrderDetailRepository orderDetailRepository;
     private final StockInventoryService stockInventoryService;
-    private final StockRabbitMqService stockRabbitMqService;
-    private final SseAlarmService sseAlarmService;
+    private final OutboxService outboxService;
+    private final ProductStockJdbcRepository productStockJdbcRepository;
+    private final MyOrderReadModelService myOrderReadModelService;
 
     public Long create(List<OrderCreateDto> orderCreateDtoList){
         String email = SecurityContextHolder.getContext().getAuthentication().getName();
@@ -43,8 +76,9 @@ public class OrderingService {
                 .member(member)
                 .build();
 
+        Map<Long, Product> productMap = loadProducts(orderCreateDtoList);
         for (OrderCreateDto dto : orderCreateDtoList){
-            Product product = productRepository.findById(dto.getProductId()).orElseThrow(()->new EntityNotFoundException("Product is not found"));
+            Product product = productMap.get(dto.getProductId());
             if (product.getStockQuantity() < dto.getProductCount()){
 //                예외를 강제 발생 시킴으로서, 모두 임시저장사항들을 rollback처리
                 throw new IllegalArgumentException("재고가 부족합니다.");
@@ -62,6 +96,7 @@ public class OrderingService {
             ordering.getOrderDetailsList().add(orderDetail);
         }
         orderingRepository.save(ordering);
+        myOrderReadModelService.registerCreated(email, OrderListResDto.fromEntity(ordering));
 //        큐에 메시지를 담는다.
         return ordering.getId();
     }
@@ -71,17 +106,68 @@ public class OrderingService {
         String email = SecurityContextHolder.getContext().getAuthentication().getName();
         Member member = memberRepository.findByEmail(email).orElseThrow(()-> new EntityNotFoundException("존재하지 않는 사용자입니다."));
 
+//        없는 상품이 있으면 redis 재고를 건드리기 전에 실패
+        Map<Long, Product> productMap = loadProducts(orderCreateDtoList);
+
+//        redis에서 주문의 모든 상품 재고를 한번에 확인 및 감소 처리 (lua script로 1회 왕복, 하나라도 부족하면 전체 미차감)
+        StockReservationDto reservation = stockInventoryService.reserveStockQuantities(orderCreateDtoList);
+        if (!reservation.isSuccess()){
+            throw new IllegalArgumentException("재고부족 : " + reservation.failedProductIds());
+        }
+//        이후 로직에서 예외가 발생하여 rollback되면 차감했던 redis 재고를 되돌려준다.
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+//            예약(hold)모드이면 commit 직전에 예약을 확정하고, 이미 만료된 예약이면 예외로 rollback
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                stockInventoryService.confirmStockQuantities(reservation);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED){
+                    stockInventoryService.releaseStockQuantities(reservation);
+                }
+            }
+        });
+
+        return saveOrdering(member, email, orderCreateDtoList, productMap, reservation);
+    }
+
+//    비동기 접수(OrderIntakeService)된 주문을 한 트랜잭션으로 저장 : 재고는 접수때 이미 차감되어 있다.
+//    회원과 상품은 batch 전체를 한번에 조회하고, 예약모드면 commit 직전에 모든 예약을 확정한다.
+//    실패해도 재고를 되돌리지 않는다. (batch를 주문 단위로 다시 저장해볼 수 있도록 호출하는 쪽에서 반환)
+    @Transactional(isolation = Isolation.READ_COMMITTED)
+    public List<Long> createReserved(List<OrderTicketDto> tickets){
+        Map<String, Member> memberMap = new HashMap<>();
+        List<OrderCreateDto> allLines = new ArrayList<>();
+        for (OrderTicketDto ticket : tickets){
+            if (!memberMap.containsKey(ticket.getEmail())){
+                memberMap.put(ticket.getEmail(), memberRepository.findByEmail(ticket.getEmail()).orElseThrow(()-> new EntityNotFoundException("존재하지 않는 사용자입니다.")));
+            }
+            allLines.addAll(ticket.getLines());
+        }
+        Map<Long, Product> productMap = loadProducts(allLines);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                tickets.forEach(ticket -> stockInventoryService.confirmStockQuantities(ticket.getReservation()));
+            }
+        });
+        List<Long> orderingIds = new ArrayList<>();
+        for (OrderTicketDto ticket : tickets){
+            orderingIds.add(saveOrdering(memberMap.get(ticket.getEmail()), ticket.getEmail(), ticket.getLines(), productMap, ticket.getReservation()));
+        }
+        return orderingIds;
+    }
+
+//    주문 저장 후, rdb 재고 사후 반영 메시지와 admin 알림은 주문과 같은 트랜잭션에서 outbox에 저장하고, OutboxRelay가 commit 후 발행한다.
+//    요청 처리중에는 broker와 통신하지 않으며, rollback된 주문의 메시지는 발행되지 않는다.
+    private Long saveOrdering(Member member, String email, List<OrderCreateDto> orderCreateDtoList, Map<Long, Product> productMap, StockReservationDto reservation){
         Ordering ordering = Ordering.builder()
                 .member(member)
                 .build();
-
         for (OrderCreateDto dto : orderCreateDtoList){
-            Product product = productRepository.findById(dto.getProductId()).orElseThrow(()->new EntityNotFoundException("Product is not found"));
-//            redis에서 재고수량 확인 및 재고수량 감소 처리
-            int newQuantity = stockInventoryService.decreaseStockQuantity(product.getId(), dto.getProductCount());
-            if (newQuantity < 0){
-                throw new IllegalArgumentException("재고부족");
-            }
+            Product product = productMap.get(dto.getProductId());
             OrderDetail orderDetail = OrderDetail.builder()
                     .product(product)
                     .quantity(dto.getProductCount())
@@ -89,25 +175,97 @@ public class OrderingService {
                     .build();
 //            orderDetailRepository.save(orderDetail);
             ordering.getOrderDetailsList().add(orderDetail);
-//          큐에 메시지를 담는다.
-//            rdb에 사후 update를 위한 메시지 발행(비동기 처리)
-            stockRabbitMqService.publish(dto.getProductId(), dto.getProductCount());
         }
         orderingRepository.save(ordering);
+        myOrderReadModelService.registerCreated(email, OrderListResDto.fromEntity(ordering));
 
-//        주문 성공시 admin 유저에게 알림메시지 전송
-        sseAlarmService.publishMessage("admin@naver.com", email, ordering.getId());
-
+        List<StockRabbitMqDto> stockLines = new ArrayList<>();
+        reservation.quantityMap().forEach((productId, count) -> stockLines.add(StockRabbitMqDto.builder()
+                .productId(productId)
+                .productCount(count)
+                .build()));
+        outboxService.append(OutboxEventType.STOCK, StockOrderEventDto.builder()
+                .orderingId(ordering.getId())
+                .createdAt(System.currentTimeMillis())
+                .lines(stockLines)
+                .build());
+        outboxService.append(OutboxEventType.ORDER_ALERT, SseMessageDto.builder()
+                .sender(email)
+                .receiver("admin@naver.com")
+                .orderingId(ordering.getId())
+                .build());
         return ordering.getId();
     }
 
-    public List<OrderListResDto> findAll(){
-        return orderingRepository.findAll().stream().map(o->OrderListResDto.fromEntity(o)).collect(Collectors.toList());
+//    주문의 모든 상품을 in 쿼리 1번으로 조회 (상품마다 findById를 하면 주문 상품 수만큼 select가 나간다)
+//    없는 상품이 있으면 그 id 목록과 함께 실패
+    private Map<Long, Product> loadProducts(List<OrderCreateDto> orderCreateDtoList){
+        Set<Long> productIds = new LinkedHashSet<>();
+        for (OrderCreateDto dto : orderCreateDtoList){
+            productIds.add(dto.getProductId());
+        }
+        Map<Long, Product> productMap = new HashMap<>(productIds.size() * 2);
+        for (Product product : productRepository.findAllById(productIds)){
+            productMap.put(product.getId(), product);
+        }
+        if (productMap.size() < productIds.size()){
+            List<Long> missingIds = new ArrayList<>();
+            for (Long productId : productIds){
+                if (!productMap.containsKey(productId)){
+                    missingIds.add(productId);
+                }
+            }
+            throw new EntityNotFoundException("존재하지 않는 상품입니다 : " + missingIds);
+        }
+        return productMap;
     }
+
+//    admin 주문목록 : cursor(이전 페이지의 nextCursor)부터 size건, 다음 페이지 확인을 위해 1건 더 조회
+    @Transactional(readOnly = true)
+    public CursorPageDto<OrderListResDto> findPage(OrderSearchDto orderSearchDto, Long cursor, int size){
+        int pageSize = checkPageSize(size);
+        List<Ordering> orderings = orderingRepository.findPageWithMember(cursor, orderSearchDto.getOrderStatus(), orderSearchDto.getMemberEmail(),
+                orderSearchDto.getFrom(), orderSearchDto.getTo(), Limit.of(pageSize + 1));
+        return CursorPageDto.of(orderings, pageSize, Ordering::getId, this::toListResDtos);
+    }
+
+//    조회모델(redis)에서 읽으면 db connection을 쓰지 않도록 트랜잭션 없이 실행하고, 없을때만 db에서 읽는다.
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public List<OrderListResDto> myOrders(){
         String email = SecurityContextHolder.getContext().getAuthentication().getName();
-        Member member = memberRepository.findByEmail(email).orElseThrow(()->new EntityNotFoundException("없는 사용자"));
-        return orderingRepository.findAllByMember(member).stream().map(o->OrderListResDto.fromEntity(o)).collect(Collectors.toList());
+        return myOrderReadModelService.myOrders(email, memberEmail -> toListResDtos(orderingRepository.findAllWithMemberByEmail(memberEmail)));
+    }
+
+    private static int checkPageSize(int size){
+        if (size < 1 || size > MAX_PAGE_SIZE){
+            throw new IllegalArgumentException("페이지 크기는 1 ~ " + MAX_PAGE_SIZE + " 사이여야 합니다.");
+        }
+        return size;
+    }
+
+//    주문(+회원) 1번, 상세(+상품명)는 LIST_CHUNK_SIZE개 주문마다 1번 조회하여 주문 수와 관계없이 쿼리 수가 일정하다.
+    private List<OrderListResDto> toListResDtos(List<Ordering> orderings){
+        Map<Long, List<OrderDetailResDto>> detailMap = new HashMap<>(orderings.size() * 2);
+        List<Long> orderingIds = new ArrayList<>(orderings.size());
+        for (Ordering ordering : orderings){
+            orderingIds.add(ordering.getId());
+            detailMap.put(ordering.getId(), new ArrayList<>());
+        }
+        for (int from = 0; from < orderingIds.size(); from += LIST_CHUNK_SIZE){
+            List<Long> chunk = orderingIds.subList(from, Math.min(orderingIds.size(), from + LIST_CHUNK_SIZE));
+            for (OrderDetailRowDto row : orderDetailRepository.findRowsByOrderingIds(chunk)){
+                detailMap.get(row.getOrderingId()).add(OrderDetailResDto.builder()
+                        .detailId(row.getDetailId())
+                        .productName(row.getProductName())
+                        .productCount(row.getProductCount())
+                        .build());
+            }
+        }
+        List<OrderListResDto> orderListResDtos = new ArrayList<>(orderings.size());
+        for (Ordering ordering : orderings){
+            orderListResDtos.add(OrderListResDto.of(ordering, detailMap.get(ordering.getId())));
+        }
+        return orderListResDtos;
     }
 
     public Ordering cancel(Long id){
@@ -121,6 +279,79 @@ public class OrderingService {
 //        redis의 재고값 증가
             stockInventoryService.increaseStockQuantity(orderDetail.getProduct().getId(), orderDetail.getQuantity());
         }
+        myOrderReadModelService.registerStatusChanged(Map.of(ordering.getMember().getEmail(), List.of(id)), OrderStatus.CANCELED);
         return ordering;
     }
+
+//    주문 일괄취소 : 대상 주문을 잠그고, 상태는 update 1번, 재고는 상품별로 합쳐서 반영한다.
+//    rdb 재고는 상품당 상대값 update 1건(JDBC batch), redis 재고는 commit 후 pipeline 1회로 되돌린다.
+    public OrderBulkCancelResDto cancelBulk(OrderBulkCancelReqDto orderBulkCancelReqDto){
+        List<Long> requestedIds = resolveCancelIds(orderBulkCancelReqDto);
+        if (requestedIds.isEmpty()){
+            return OrderBulkCancelResDto.builder().build();
+        }
+        Map<Long, OrderCancelResult> resultMap = new LinkedHashMap<>();
+        for (Long id : requestedIds){
+            resultMap.put(id, OrderCancelResult.NOT_FOUND);
+        }
+        List<Long> cancelIds = new ArrayList<>();
+        Map<String, List<Long>> cancelIdsByEmail = new HashMap<>();
+        for (Ordering ordering : orderingRepository.findAllForUpdate(resultMap.keySet())){
+            if (ordering.getOrderStatus() == OrderStatus.CANCELED){
+                resultMap.put(ordering.getId(), OrderCancelResult.ALREADY_CANCELED);
+            } else {
+                resultMap.put(ordering.getId(), OrderCancelResult.CANCELED);
+                cancelIds.add(ordering.getId());
+                cancelIdsByEmail.computeIfAbsent(ordering.getMember().getEmail(), email -> new ArrayList<>()).add(ordering.getId());
+            }
+        }
+
+        Map<Long, Integer> restoreMap = new TreeMap<>();
+        if (!cancelIds.isEmpty()){
+            orderingRepository.updateOrderStatus(cancelIds, OrderStatus.CANCELED);
+            for (ProductQuantityDto dto : orderDetailRepository.sumQuantitiesByOrderingIds(cancelIds)){
+                restoreMap.put(dto.getProductId(), Math.toIntExact(dto.getQuantity()));
+            }
+            productStockJdbcRepository.adjustStockQuantities(restoreMap);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    try {
+                        stockInventoryService.increaseStockQuantities(restoreMap);
+                    } catch (Exception e){
+//                        rdb에는 반영되었으므로 재고 점검(StockReconcileService)에서 차이로 잡힌다.
+                        log.error("주문 일괄취소 redis 재고 복원 실패 {} : {}", restoreMap, e.getMessage());
+                    }
+                }
+            });
+            myOrderReadModelService.registerStatusChanged(cancelIdsByEmail, OrderStatus.CANCELED);
+        }
+
+        List<OrderCancelResultDto> results = new ArrayList<>();
+        resultMap.forEach((id, result) -> results.add(OrderCancelResultDto.builder()
+                .orderingId(id)
+                .result(result)
+                .build()));
+        return OrderBulkCancelResDto.builder()
+                .canceledCount(cancelIds.size())
+                .restoredProductCount(restoreMap.size())
+                .results(results)
+                .build();
+    }
+
+    private List<Long> resolveCancelIds(OrderBulkCancelReqDto orderBulkCancelReqDto){
+        List<Long> orderingIds = orderBulkCancelReqDto.getOrderingIds();
+        if (orderingIds != null && !orderingIds.isEmpty()){
+            if (orderingIds.size() > MAX_BULK_CANCEL){
+                throw new IllegalArgumentException("한번에 취소할 수 있는 주문은 " + MAX_BULK_CANCEL + "건 입니다.");
+            }
+            return orderingIds.stream().distinct().toList();
+        }
+//        조건 없이 전체 주문이 취소되지 않도록 조건을 하나 이상 요구
+        if (orderBulkCancelReqDto.getMemberEmail() == null && orderBulkCancelReqDto.getFrom() == null && orderBulkCancelReqDto.getTo() == null){
+            throw new IllegalArgumentException("취소할 주문id 또는 조건(회원, 기간)이 필요합니다.");
+        }
+        return orderingRepository.findOrderedIds(orderBulkCancelReqDto.getMemberEmail(), orderBulkCancelReqDto.getFrom(),
+                orderBulkCancelReqDto.getTo(), Limit.of(MAX_BULK_CANCEL));
+    }
 }
@@ -0,0 +1,258 @@
+package com.beyond.ordersystem.ordering.service;
+
+import com.beyond.ordersystem.common.dto.StockRabbitMqDto;
+import com.beyond.ordersystem.ordering.dto.StockReservationDto;
+import com.beyond.ordersystem.ordering.dto.StockReserveLineDto;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// redis db 1(stockInventory)에 상품id를 키로 재고를 저장하는 기본 저장소
+@Component
+@ConditionalOnProperty(name = "stock.store", havingValue = "redis", matchIfMissing = true)
+public class RedisStockStore implements StockStore {
+
+//    KEYS : 상품id 목록 + 마지막에 pending hash, ARGV : 주문수량 목록
+//    모든 상품의 재고를 먼저 확인하고, 전부 충분할때만 차감한다(all-or-nothing)
+//    반환값 : [성공여부(1/0), 상품별 수량...] 성공시 차감 후 재고, 실패시 현재 재고(키가 없으면 -1)
+    private static final RedisScript<List> RESERVE_SCRIPT = new DefaultRedisScript<>(
+            "local n = #KEYS - 1\n" +
+            "local result = {1}\n" +
+            "for i = 1, n do\n" +
+            "  local remain = redis.call('GET', KEYS[i])\n" +
+            "  if not remain then\n" +
+            "    result[1] = 0\n" +
+            "    result[i + 1] = -1\n" +
+            "  else\n" +
+            "    remain = tonumber(remain)\n" +
+            "    if remain < tonumber(ARGV[i]) then result[1] = 0 end\n" +
+            "    result[i + 1] = remain\n" +
+            "  end\n" +
+            "end\n" +
+            "if result[1] == 1 then\n" +
+            "  for i = 1, n do\n" +
+            "    result[i + 1] = redis.call('DECRBY', KEYS[i], ARGV[i])\n" +
+            "    redis.call('HINCRBY', KEYS[n + 1], KEYS[i], ARGV[i])\n" +
+            "  end\n" +
+            "end\n" +
+            "return result", List.class);
+
+//    차감했던 재고를 한번에 되돌려주는 스크립트 (KEYS 구성은 RESERVE_SCRIPT와 동일)
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "local n = #KEYS - 1\n" +
+            "for i = 1, n do\n" +
+            "  redis.call('INCRBY', KEYS[i], ARGV[i])\n" +
+            "  redis.call('HINCRBY', KEYS[n + 1], KEYS[i], -tonumber(ARGV[i]))\n" +
+            "end\n" +
+            "return n", Long.class);
+
+//    반영대기 수량을 줄인 line id 표시 키 (stock-pending-done:{메시지id:상품id})
+    static final String PENDING_DONE_KEY_PREFIX = "stock-pending-done:";
+
+//    KEYS[1] : pending hash, ARGV[1] : 표시 유지시간(ms), 이후 line마다 [표시키, 상품id, 수량]
+//    표시키가 없을때만 표시하고 줄이므로 같은 line은 한번만 줄어든다. (표시키를 스크립트 안에서 만드므로 단일 redis 기준)
+    private static final RedisScript<Long> COMPLETE_PENDING_SCRIPT = new DefaultRedisScript<>(
+            "local completed = 0\n" +
+            "for i = 2, #ARGV, 3 do\n" +
+            "  if redis.call('SET', ARGV[i], '1', 'NX', 'PX', ARGV[1]) then\n" +
+            "    redis.call('HINCRBY', KEYS[1], ARGV[i + 1], -tonumber(ARGV[i + 2]))\n" +
+            "    completed = completed + 1\n" +
+            "  end\n" +
+            "end\n" +
+            "return completed", Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    public RedisStockStore(@Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @Override
+    public void makeStockQuantity(Long productId, int quantity){
+        redisTemplate.opsForValue().set(String.valueOf(productId), String.valueOf(quantity));
+    }
+
+//    overwrite=true : MSET으로 덮어쓰기, false : 키가 없는 상품만 SETNX로 채움
+//    모든 명령을 pipeline으로 묶어서 보내므로 batchSize개의 상품당 1회 왕복
+    @Override
+    public List<Long> makeStockQuantities(Map<Long, Integer> quantityMap, boolean overwrite, int batchSize){
+        List<Long> writtenIds = new ArrayList<>();
+        if (quantityMap.isEmpty()){
+            return writtenIds;
+        }
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            Map<byte[], byte[]> tuple = new HashMap<>();
+            for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+                byte[] key = String.valueOf(entry.getKey()).getBytes(StandardCharsets.UTF_8);
+                byte[] value = String.valueOf(entry.getValue()).getBytes(StandardCharsets.UTF_8);
+                if (!overwrite){
+                    connection.stringCommands().setNX(key, value);
+                    continue;
+                }
+                tuple.put(key, value);
+                if (tuple.size() >= batchSize){
+                    connection.stringCommands().mSet(tuple);
+                    tuple = new HashMap<>();
+                }
+            }
+            if (!tuple.isEmpty()){
+                connection.stringCommands().mSet(tuple);
+            }
+            return null;
+        });
+//        rdb 값으로 새로 세팅된 상품은 반영대기 수량도 의미가 없어지므로 지운다.
+        int i = 0;
+        for (Long productId : quantityMap.keySet()){
+            if (overwrite || Boolean.TRUE.equals(results.get(i))){
+                writtenIds.add(productId);
+            }
+            i++;
+        }
+        clearPendingQuantities(writtenIds);
+        return writtenIds;
+    }
+
+    @Override
+    public long increaseStockQuantity(Long productId, int quantity){
+        Long finalRemains = redisTemplate.opsForValue().increment(String.valueOf(productId), quantity);
+        return finalRemains == null ? 0 : finalRemains;
+    }
+
+//    상품 수와 관계없이 pipeline 1회 왕복
+    @Override
+    public void increaseStockQuantities(Map<Long, Integer> quantityMap){
+        if (quantityMap.isEmpty()){
+            return;
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+                connection.stringCommands().incrBy(String.valueOf(entry.getKey()).getBytes(StandardCharsets.UTF_8), entry.getValue());
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public StockReservationDto reserve(Map<Long, Integer> quantityMap){
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            keys.add(String.valueOf(entry.getKey()));
+            args.add(String.valueOf(entry.getValue()));
+        }
+        keys.add(StockInventoryService.PENDING_HASH_KEY);
+        List<Long> result = redisTemplate.execute(RESERVE_SCRIPT, keys, args.toArray());
+        boolean success = result.get(0) == 1L;
+
+        List<StockReserveLineDto> lines = new ArrayList<>();
+        int i = 1;
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            Long remain = result.get(i++);
+            lines.add(StockReserveLineDto.builder()
+                    .productId(entry.getKey())
+                    .productCount(entry.getValue())
+                    .remainQuantity(remain)
+                    .sufficient(success || remain >= entry.getValue())
+                    .build());
+        }
+        return StockReservationDto.builder()
+                .success(success)
+                .lines(lines)
+                .build();
+    }
+
+    @Override
+    public void release(Map<Long, Integer> quantityMap){
+        if (quantityMap.isEmpty()){
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            keys.add(String.valueOf(entry.getKey()));
+            args.add(String.valueOf(entry.getValue()));
+        }
+        keys.add(StockInventoryService.PENDING_HASH_KEY);
+        redisTemplate.execute(RELEASE_SCRIPT, keys, args.toArray());
+    }
+
+    @Override
+    public void addPendingQuantities(Map<Long, Integer> quantityMap, int sign){
+        if (quantityMap.isEmpty()){
+            return;
+        }
+        byte[] pendingKey = StockInventoryService.PENDING_HASH_KEY.getBytes(StandardCharsets.UTF_8);
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+                connection.hashCommands().hIncrBy(pendingKey, String.valueOf(entry.getKey()).getBytes(StandardCharsets.UTF_8), (long) sign * entry.getValue());
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void completePendingLines(Map<String, StockRabbitMqDto> lines, long markerTtlMillis){
+        if (lines.isEmpty()){
+            return;
+        }
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(markerTtlMillis));
+        for (Map.Entry<String, StockRabbitMqDto> entry : lines.entrySet()){
+            args.add(PENDING_DONE_KEY_PREFIX + entry.getKey());
+            args.add(String.valueOf(entry.getValue().getProductId()));
+            args.add(String.valueOf(entry.getValue().getProductCount()));
+        }
+        redisTemplate.execute(COMPLETE_PENDING_SCRIPT, List.of(StockInventoryService.PENDING_HASH_KEY), args.toArray());
+    }
+
+    @Override
+    public void clearPendingQuantities(List<Long> productIds){
+        if (productIds.isEmpty()){
+            return;
+        }
+        byte[][] fields = new byte[productIds.size()][];
+        for (int i = 0; i < productIds.size(); i++){
+            fields[i] = String.valueOf(productIds.get(i)).getBytes(StandardCharsets.UTF_8);
+        }
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.hashCommands().hDel(StockInventoryService.PENDING_HASH_KEY.getBytes(StandardCharsets.UTF_8), fields));
+    }
+
+//    재고와 반영대기 수량을 한번의 pipeline으로 조회
+    @Override
+    public Map<Long, Long> getCommittedStockQuantities(List<Long> productIds){
+        Map<Long, Long> resultMap = new LinkedHashMap<>();
+        if (productIds.isEmpty()){
+            return resultMap;
+        }
+        byte[][] keys = new byte[productIds.size()][];
+        for (int i = 0; i < productIds.size(); i++){
+            keys[i] = String.valueOf(productIds.get(i)).getBytes(StandardCharsets.UTF_8);
+        }
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().mGet(keys);
+            connection.hashCommands().hMGet(StockInventoryService.PENDING_HASH_KEY.getBytes(StandardCharsets.UTF_8), keys);
+            return null;
+        });
+        List<String> remains = (List<String>) results.get(0);
+        List<String> pendings = (List<String>) results.get(1);
+        for (int i = 0; i < productIds.size(); i++){
+            if (remains.get(i) == null){
+                continue;
+            }
+            long pending = pendings.get(i) == null ? 0 : Long.parseLong(pendings.get(i));
+            resultMap.put(productIds.get(i), Long.parseLong(remains.get(i)) + pending);
+        }
+        return resultMap;
+    }
+}
@@ -0,0 +1,125 @@
+package com.beyond.ordersystem.ordering.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 상품id(long) -> 수량(AtomicInteger) open addressing hash table
+// 조회와 수량 증감(CAS)은 lock 없이 처리하고, 새 상품 추가와 table 확장만 lock을 잡는다.
+// 상품id 0은 빈 칸 표시로 쓰므로 1 이상만 저장할 수 있다.
+class StockCounterTable {
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final float LOAD_FACTOR = 0.75f;
+
+//    확장시에는 새 table을 만들고 수량 객체(AtomicInteger)를 그대로 옮기므로, 이전 table을 읽던 스레드의 증감도 유실되지 않는다.
+    private static final class Table {
+        final long[] keys;
+        final AtomicInteger[] values;
+        final int mask;
+
+        Table(int capacity){
+            this.keys = new long[capacity];
+            this.values = new AtomicInteger[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile Table table;
+    private int size;
+
+    StockCounterTable(int initialCapacity){
+        int capacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+        this.table = new Table(capacity);
+    }
+
+    AtomicInteger get(long key){
+        checkKey(key);
+        Table t = table;
+        int index = indexOf(key, t.mask);
+        while (true){
+            long k = (long) KEYS.getAcquire(t.keys, index);
+            if (k == key){
+                return t.values[index];
+            }
+            if (k == 0){
+                return null;
+            }
+            index = (index + 1) & t.mask;
+        }
+    }
+
+    AtomicInteger getOrCreate(long key){
+        AtomicInteger holder = get(key);
+        if (holder != null){
+            return holder;
+        }
+        writeLock.lock();
+        try {
+            holder = get(key);
+            if (holder == null){
+                holder = new AtomicInteger();
+                insert(key, holder);
+            }
+            return holder;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+//    반환값 : 새로 추가했으면 true, 이미 있던 상품이면 false(수량 변경없음)
+    boolean putIfAbsent(long key, int value){
+        writeLock.lock();
+        try {
+            if (get(key) != null){
+                return false;
+            }
+            insert(key, new AtomicInteger(value));
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void insert(long key, AtomicInteger holder){
+        if (size + 1 > table.keys.length * LOAD_FACTOR){
+            resize();
+        }
+        place(table, key, holder);
+        size++;
+    }
+
+//    값을 먼저 넣고 키를 release로 기록해야 키를 본 스레드가 값도 본다.
+    private void place(Table t, long key, AtomicInteger holder){
+        int index = indexOf(key, t.mask);
+        while (t.keys[index] != 0){
+            index = (index + 1) & t.mask;
+        }
+        t.values[index] = holder;
+        KEYS.setRelease(t.keys, index, key);
+    }
+
+    private void resize(){
+        Table old = table;
+        Table bigger = new Table(old.keys.length << 1);
+        for (int i = 0; i < old.keys.length; i++){
+            if (old.keys[i] != 0){
+                place(bigger, old.keys[i], old.values[i]);
+            }
+        }
+        table = bigger;
+    }
+
+    private static int indexOf(long key, int mask){
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private static void checkKey(long key){
+        if (key <= 0){
+            throw new IllegalArgumentException("상품id가 올바르지 않습니다.");
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.beyond.ordersystem.ordering.service;
+
+import com.beyond.ordersystem.ordering.dto.StockReservationDto;
+import com.beyond.ordersystem.ordering.dto.StockReserveLineDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// 재고 예약(hold) : 주문 접수시 재고를 차감하면서 만료시각이 있는 예약으로 기록하고, 주문이 commit되면 확정한다.
+// 확정되지 않은 예약(서버 장애, 처리 지연 등)은 만료 후 sweeper가 재고로 되돌린다.
+// stock-hold : 예약id를 만료시각(ms)을 score로 저장하는 sorted set
+// stock-hold:{예약id} : 예약된 상품id -> 수량 hash
+// 예약 해제시 hash에 기록된 상품 재고키를 스크립트 안에서 찾아 쓰므로 redis cluster가 아닌 단일 redis 기준이다.
+@Slf4j
+@Component
+public class StockHoldService {
+
+    public static final String HOLD_ZSET_KEY = "stock-hold";
+
+//    KEYS : 상품id 목록 + [pending hash, 예약 zset, 예약 hash], ARGV : 주문수량 목록 + [예약id, 만료시각]
+//    반환값은 StockInventoryService의 RESERVE_SCRIPT와 동일
+    private static final RedisScript<List> HOLD_SCRIPT = new DefaultRedisScript<>(
+            "local n = #KEYS - 3\n" +
+            "local result = {1}\n" +
+            "for i = 1, n do\n" +
+            "  local remain = redis.call('GET', KEYS[i])\n" +
+            "  if not remain then\n" +
+            "    result[1] = 0\n" +
+            "    result[i + 1] = -1\n" +
+            "  else\n" +
+            "    remain = tonumber(remain)\n" +
+            "    if remain < tonumber(ARGV[i]) then result[1] = 0 end\n" +
+            "    result[i + 1] = remain\n" +
+            "  end\n" +
+            "end\n" +
+            "if result[1] == 1 then\n" +
+            "  for i = 1, n do\n" +
+            "    result[i + 1] = redis.call('DECRBY', KEYS[i], ARGV[i])\n" +
+            "    redis.call('HINCRBY', KEYS[n + 1], KEYS[i], ARGV[i])\n" +
+            "    redis.call('HSET', KEYS[n + 3], KEYS[i], ARGV[i])\n" +
+            "  end\n" +
+            "  redis.call('ZADD', KEYS[n + 2], ARGV[n + 2], ARGV[n + 1])\n" +
+            "end\n" +
+            "return result", List.class);
+
+//    KEYS[1] : 예약 zset, KEYS[2] : 예약 hash, ARGV[1] : 예약id
+//    zset에서 먼저 지운 쪽만 처리하므로 확정과 만료해제가 동시에 일어나도 한쪽만 성공한다.
+    private static final RedisScript<Long> CONFIRM_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('ZREM', KEYS[1], ARGV[1]) == 1 then\n" +
+            "  redis.call('DEL', KEYS[2])\n" +
+            "  return 1\n" +
+            "end\n" +
+            "return 0", Long.class);
+
+//    KEYS[1] : 예약 zset, KEYS[2] : pending hash, ARGV : 예약id 목록
+//    반환값 : 실제로 해제한 예약 수
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "local released = 0\n" +
+            "for _, holdId in ipairs(ARGV) do\n" +
+            "  if redis.call('ZREM', KEYS[1], holdId) == 1 then\n" +
+            "    local holdKey = KEYS[1] .. ':' .. holdId\n" +
+            "    local lines = redis.call('HGETALL', holdKey)\n" +
+            "    for i = 1, #lines, 2 do\n" +
+            "      redis.call('INCRBY', lines[i], lines[i + 1])\n" +
+            "      redis.call('HINCRBY', KEYS[2], lines[i], -tonumber(lines[i + 1]))\n" +
+            "    end\n" +
+            "    redis.call('DEL', holdKey)\n" +
+            "    released = released + 1\n" +
+            "  end\n" +
+            "end\n" +
+            "return released", Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final Counter expiredCounter;
+
+    @Value("${stock.hold.ttl-millis:60000}")
+    private long ttlMillis;
+    @Value("${stock.hold.sweep-batch-size:200}")
+    private int sweepBatchSize;
+
+    public StockHoldService(@Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate, MeterRegistry meterRegistry) {
+        this.redisTemplate = redisTemplate;
+        this.expiredCounter = meterRegistry.counter("stock.hold.expired");
+    }
+
+    public static String holdKey(String holdId){
+        return HOLD_ZSET_KEY + ":" + holdId;
+    }
+
+//    all-or-nothing 차감과 예약기록을 하나의 스크립트로 처리 (1회 왕복)
+    public StockReservationDto hold(Map<Long, Integer> quantityMap){
+        String holdId = UUID.randomUUID().toString();
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            keys.add(String.valueOf(entry.getKey()));
+            args.add(String.valueOf(entry.getValue()));
+        }
+        keys.add(StockInventoryService.PENDING_HASH_KEY);
+        keys.add(HOLD_ZSET_KEY);
+        keys.add(holdKey(holdId));
+        args.add(holdId);
+        args.add(String.valueOf(System.currentTimeMillis() + ttlMillis));
+        List<Long> result = redisTemplate.execute(HOLD_SCRIPT, keys, args.toArray());
+        boolean success = result.get(0) == 1L;
+
+        List<StockReserveLineDto> lines = new ArrayList<>();
+        int i = 1;
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            Long remain = result.get(i++);
+            lines.add(StockReserveLineDto.builder()
+                    .productId(entry.getKey())
+                    .productCount(entry.getValue())
+                    .remainQuantity(remain)
+                    .sufficient(success || remain >= entry.getValue())
+                    .build());
+        }
+        return StockReservationDto.builder()
+                .success(success)
+                .holdId(success ? holdId : null)
+                .lines(lines)
+                .build();
+    }
+
+//    반환값 : 확정 성공여부 (이미 만료되어 재고로 되돌아간 예약이면 false)
+    public boolean confirm(String holdId){
+        Long confirmed = redisTemplate.execute(CONFIRM_SCRIPT, List.of(HOLD_ZSET_KEY, holdKey(holdId)), holdId);
+        return confirmed != null && confirmed == 1L;
+    }
+
+//    확정되지 않은 예약을 즉시 재고로 되돌린다. 이미 확정/해제된 예약이면 아무것도 하지 않는다.
+    public boolean release(String holdId){
+        Long released = redisTemplate.execute(RELEASE_SCRIPT, List.of(HOLD_ZSET_KEY, StockInventoryService.PENDING_HASH_KEY), holdId);
+        return released != null && released == 1L;
+    }
+
+//    만료된 예약을 batch 단위로 재고에 되돌린다.
+    @Scheduled(fixedDelayString = "${stock.hold.sweep-millis:1000}")
+    public void releaseExpiredHolds(){
+        try {
+            while (true){
+                long now = System.currentTimeMillis();
+                List<String> expired = new ArrayList<>(redisTemplate.opsForZSet().rangeByScore(HOLD_ZSET_KEY, 0, now, 0, sweepBatchSize));
+                if (expired.isEmpty()){
+                    return;
+                }
+                Long released = redisTemplate.execute(RELEASE_SCRIPT, List.of(HOLD_ZSET_KEY, StockInventoryService.PENDING_HASH_KEY), expired.toArray());
+                if (released != null && released > 0){
+                    expiredCounter.increment(released);
+                    log.info("만료된 재고 예약 {}건 해제", released);
+                }
+                if (expired.size() < sweepBatchSize){
+                    return;
+                }
+            }
+        } catch (Exception e){
+            log.error("만료 재고 예약 해제 실패 : {}", e.getMessage());
+        }
+    }
+}
@@ -1,36 +1,260 @@
 package com.beyond.ordersystem.ordering.service;
 
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.data.redis.core.RedisTemplate;
+import com.beyond.ordersystem.common.dto.StockRabbitMqDto;
+import com.beyond.ordersystem.ordering.dto.OrderCreateDto;
+import com.beyond.ordersystem.ordering.dto.StockReservationDto;
+import com.beyond.ordersystem.ordering.dto.StockReserveLineDto;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Slf4j
 @Component
 public class StockInventoryService {
 
-    private final RedisTemplate<String, String> redisTemplate;
+//    redis에서는 차감되었지만 아직 rdb에 반영되지 않은 수량 (상품id -> 수량)
+//    차감시 증가시키고, rabbitmq 소비자가 rdb에 반영(commit)한 뒤 감소시킨다. 재고 정합성 점검에 사용
+    public static final String PENDING_HASH_KEY = "stock-pending";
+
+    private final StockStore stockStore;
+    private final StockLeaseManager stockLeaseManager;
+    private final StockShardService stockShardService;
+    private final StockHoldService stockHoldService;
+
+//    true 이면 상품별로 재고를 일정량씩 임대받아 서버 메모리에서 차감 (redis 왕복 감소)
+    @Value("${stock.lease.enabled:false}")
+    private boolean leaseEnabled;
+//    true 이면 차감한 재고를 만료시각이 있는 예약으로 기록하고 주문 commit시 확정 (임대모드가 아닌 상품에만 적용)
+    @Value("${stock.hold.enabled:false}")
+    private boolean holdEnabled;
+    private boolean redisStore;
+
+    public StockInventoryService(StockStore stockStore, StockLeaseManager stockLeaseManager, StockShardService stockShardService, StockHoldService stockHoldService) {
+        this.stockStore = stockStore;
+        this.stockLeaseManager = stockLeaseManager;
+        this.stockShardService = stockShardService;
+        this.stockHoldService = stockHoldService;
+    }
+
+//    임대/분할/예약은 redis 재고키를 직접 다루므로 redis 저장소일때만 사용한다.
+    @PostConstruct
+    public void checkStoreOptions(){
+        redisStore = stockStore instanceof RedisStockStore;
+        if (!redisStore && (leaseEnabled || holdEnabled)){
+            log.warn("{} 에서는 재고 임대/예약 모드를 사용할 수 없어 끕니다.", stockStore.getClass().getSimpleName());
+            leaseEnabled = false;
+            holdEnabled = false;
+        }
+    }
 
-    public StockInventoryService(@Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate) {
-        this.redisTemplate = redisTemplate;
+//    재고 차감이 만료시각이 있는 예약으로 기록되는지 여부 (임대모드이면 임대분에서 차감하므로 예약이 남지 않는다.)
+    public boolean isHoldEnabled(){
+        return holdEnabled && !leaseEnabled;
     }
 
     //    상품 등록시 재고수량 세팅
     public void makeStockQuantity(Long productId, int quantity){
-        redisTemplate.opsForValue().set(String.valueOf(productId), String.valueOf(quantity));
+        stockStore.makeStockQuantity(productId, quantity);
+    }
+//    재고 일괄 세팅 (redis 장애복구, 재구성용)
+//    overwrite=false 이면 재고가 없는 상품만 채운다.
+    public long makeStockQuantities(Map<Long, Integer> quantityMap, boolean overwrite, int batchSize){
+        if (quantityMap.isEmpty()){
+            return 0;
+        }
+//        분할된 상품은 원래 재고키가 0으로 유지되어야 하므로 분할키에 다시 나눈다.
+        long shardedCount = 0;
+        if (overwrite){
+            Map<Long, Integer> plainMap = new LinkedHashMap<>();
+            for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+                if (isSharded(entry.getKey())){
+                    stockShardService.reset(entry.getKey(), entry.getValue());
+                    stockStore.clearPendingQuantities(List.of(entry.getKey()));
+                    shardedCount++;
+                } else {
+                    plainMap.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (shardedCount > 0){
+                return shardedCount + makeStockQuantities(plainMap, true, batchSize);
+            }
+        }
+        return stockStore.makeStockQuantities(quantityMap, overwrite, batchSize).size();
     }
+
 //    주문 성공시 재고수량 감소
     public int decreaseStockQuantity(Long productId, int orderQuantity){
-        String remainObject = redisTemplate.opsForValue().get(String.valueOf(productId));
-        int remains = Integer.parseInt(remainObject);
-        if (remains < orderQuantity){
+        StockReservationDto reservation = reserve(Map.of(productId, orderQuantity));
+        if (!reservation.isSuccess()){
             return -1;
-        }else {
-            Long finalRemains =redisTemplate.opsForValue().decrement(String.valueOf(productId), orderQuantity);
-            return finalRemains.intValue();
         }
+        return reservation.getLines().get(0).getRemainQuantity().intValue();
     }
 //    주문 취소시 재고수량 증
     public int increaseStockQuantity(Long productId, int quantity){
-        Long finalRemains =redisTemplate.opsForValue().increment(String.valueOf(productId), quantity);
-        return finalRemains.intValue();
+        if (isSharded(productId)){
+            return (int) stockShardService.increase(productId, quantity, callerHash());
+        }
+        return (int) stockStore.increaseStockQuantity(productId, quantity);
+    }
+
+//    주문 일괄취소시 재고수량 증가 : 분할된 상품은 분할키에, 나머지는 저장소에 한번에 반영
+    public void increaseStockQuantities(Map<Long, Integer> quantityMap){
+        Map<Long, Integer> plainMap = new LinkedHashMap<>();
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            if (isSharded(entry.getKey())){
+                stockShardService.increase(entry.getKey(), entry.getValue(), callerHash());
+            } else {
+                plainMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+        stockStore.increaseStockQuantities(plainMap);
+    }
+
+//    rabbitmq 소비자가 rdb 반영을 commit한 뒤 호출 : 반영된 수량만큼 pending 감소
+    public void completePendingQuantities(Map<Long, Integer> quantityMap){
+        stockStore.addPendingQuantities(quantityMap, -1);
+    }
+
+//    id가 있는 메시지의 line은 line id별로 한번만 pending 감소 (재전달된 line도 안전하게 다시 호출할 수 있음)
+    public void completePendingLines(Map<String, StockRabbitMqDto> lines, long markerTtlMillis){
+        if (lines.isEmpty()){
+            return;
+        }
+        stockStore.completePendingLines(lines, markerTtlMillis);
+    }
+
+//    재고 점검용 : 상품별로 (재고 + 아직 rdb에 반영되지 않은 수량)
+//    이 값이 rdb의 재고와 같아야 정상이다. 재고가 없는 상품은 결과에서 빠진다.
+//    분할된 상품은 원래 재고키가 0으로 유지되므로 저장소 값(pending 포함)에 분할키 합계를 더한다.
+    public Map<Long, Long> getCommittedStockQuantities(List<Long> productIds){
+        Map<Long, Long> resultMap = stockStore.getCommittedStockQuantities(productIds);
+        for (Long productId : productIds){
+            if (isSharded(productId)){
+                long total = stockShardService.getShardStatus(productId).getTotalQuantity();
+                resultMap.put(productId, resultMap.getOrDefault(productId, 0L) + total);
+            }
+        }
+        return resultMap;
+    }
+
+//    주문의 모든 상품 재고를 한번에 확인 및 차감 (redis 저장소는 1회 왕복)
+//    같은 상품이 여러번 들어오면 수량을 합쳐서 한번에 확인한다.
+    public StockReservationDto reserveStockQuantities(List<OrderCreateDto> orderCreateDtoList){
+        Map<Long, Integer> quantityMap = new LinkedHashMap<>();
+        for (OrderCreateDto dto : orderCreateDtoList){
+            if (dto.getProductCount() == null || dto.getProductCount() <= 0){
+                throw new IllegalArgumentException("주문수량이 올바르지 않습니다.");
+            }
+            quantityMap.merge(dto.getProductId(), dto.getProductCount(), Integer::sum);
+        }
+        return reserve(quantityMap);
+    }
+
+//    예약모드에서 주문 commit 직전에 호출 : 예약이 이미 만료되어 재고로 되돌아갔다면 예외를 던져 주문을 rollback 시킨다.
+//    이미 확정된 예약(비동기 접수 batch가 실패하여 주문 단위로 다시 저장하는 경우)은 다시 확정하지 않는다.
+    public void confirmStockQuantities(StockReservationDto reservation){
+        if (reservation.getHoldId() == null || reservation.isHoldConfirmed()){
+            return;
+        }
+        if (!stockHoldService.confirm(reservation.getHoldId())){
+            throw new IllegalArgumentException("재고 예약시간이 만료되었습니다. 다시 주문해주세요.");
+        }
+        reservation.setHoldConfirmed(true);
+    }
+
+//    rollback 등으로 주문이 완료되지 않았을 때 차감했던 재고를 되돌려준다.
+    public void releaseStockQuantities(StockReservationDto reservation){
+        if (!reservation.isSuccess() || reservation.getLines().isEmpty()){
+            return;
+        }
+//        확정 전 예약은 예약기록 기준으로 해제 (이미 만료 해제되었으면 아무것도 하지 않음)
+        boolean holdRelease = reservation.getHoldId() != null && !reservation.isHoldConfirmed();
+        if (holdRelease){
+            stockHoldService.release(reservation.getHoldId());
+        }
+        Map<Long, Integer> shardedMap = new LinkedHashMap<>();
+        Map<Long, Integer> plainMap = new LinkedHashMap<>();
+        for (StockReserveLineDto line : reservation.getLines()){
+            if (isSharded(line.getProductId())){
+                shardedMap.put(line.getProductId(), line.getProductCount());
+            } else if (!holdRelease){
+                plainMap.put(line.getProductId(), line.getProductCount());
+            }
+        }
+        if (!shardedMap.isEmpty()){
+            stockShardService.release(shardedMap, callerHash());
+            stockStore.addPendingQuantities(shardedMap, -1);
+        }
+        stockStore.release(plainMap);
+    }
+
+//    분할된 상품은 분할키에서 먼저 차감하고, 나머지 상품이 실패하면 분할키 차감분을 되돌린다.
+    private StockReservationDto reserve(Map<Long, Integer> quantityMap){
+        Map<Long, Integer> shardedMap = new LinkedHashMap<>();
+        Map<Long, Integer> plainMap = new LinkedHashMap<>();
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            if (isSharded(entry.getKey())){
+                shardedMap.put(entry.getKey(), entry.getValue());
+            } else {
+                plainMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (shardedMap.isEmpty()){
+            return reservePlain(plainMap);
+        }
+        int callerHash = callerHash();
+        StockReservationDto shardedResult = stockShardService.reserve(shardedMap, callerHash);
+        if (!shardedResult.isSuccess()){
+            return shardedResult;
+        }
+        if (plainMap.isEmpty()){
+            stockStore.addPendingQuantities(shardedMap, 1);
+            return shardedResult;
+        }
+        StockReservationDto plainResult = reservePlain(plainMap);
+        if (!plainResult.isSuccess()){
+            stockShardService.release(shardedMap, callerHash);
+        } else {
+            stockStore.addPendingQuantities(shardedMap, 1);
+        }
+        List<StockReserveLineDto> lines = new ArrayList<>(shardedResult.getLines());
+        lines.addAll(plainResult.getLines());
+        return StockReservationDto.builder()
+                .success(plainResult.isSuccess())
+                .holdId(plainResult.getHoldId())
+                .lines(lines)
+                .build();
+    }
+
+//    분할키 선택용 호출자 hash : 로그인 사용자 기준으로 분산시키고, 없으면 스레드 기준
+    private int callerHash(){
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getName() != null){
+            return authentication.getName().hashCode();
+        }
+        return Long.hashCode(Thread.currentThread().getId());
+    }
+
+    private StockReservationDto reservePlain(Map<Long, Integer> quantityMap){
+        if (leaseEnabled){
+            return stockLeaseManager.reserve(quantityMap);
+        }
+        if (holdEnabled){
+            return stockHoldService.hold(quantityMap);
+        }
+        return stockStore.reserve(quantityMap);
+    }
+
+    private boolean isSharded(Long productId){
+        return redisStore && stockShardService.isSharded(productId);
     }
 }
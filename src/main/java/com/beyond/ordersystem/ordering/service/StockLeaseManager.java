@@ -0,0 +1,263 @@
+package com.beyond.ordersystem.ordering.service;
+
+import com.beyond.ordersystem.ordering.dto.StockReservationDto;
+import com.beyond.ordersystem.ordering.dto.StockReserveLineDto;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 재고 임대(lease) : redis 재고에서 일정 수량을 한번에 가져와 이 서버의 메모리 카운터에서 차감한다.
+// redis에서 원자적으로 가져간 수량만 판매하므로 여러 서버가 동시에 임대해도 초과판매는 발생하지 않는다.
+// 임대 수량이 소진되었을 때만 redis에 다시 접근하고, 쓰지 못한 수량은 만료/종료시 redis에 반납한다.
+@Slf4j
+@Component
+public class StockLeaseManager {
+
+//    각 서버가 임대중인 수량의 합계 (상품id -> 수량), 재고 점검/모니터링용
+    public static final String LEASE_HASH_KEY = "stock-lease";
+
+//    KEYS[1] : 상품 재고키, KEYS[2] : 임대 집계 hash, KEYS[3] : rdb 반영대기 hash
+//    임대한 수량은 판매되거나(rabbitmq 소비자가 반영) 반납될때까지 반영대기 수량으로 집계한다.
+//    ARGV[1] : 임대 희망수량, ARGV[2] : 이번 주문에 필요한 수량, ARGV[3] : 잔여재고 임계치, ARGV[4] : 상품id
+//    잔여재고가 임계치 이하이면 다른 서버가 굶지 않도록 필요한 수량만 가져간다.
+    private static final RedisScript<Long> TAKE_SCRIPT = new DefaultRedisScript<>(
+            "local remain = redis.call('GET', KEYS[1])\n" +
+            "if not remain then return -1 end\n" +
+            "remain = tonumber(remain)\n" +
+            "local take = math.min(remain, tonumber(ARGV[1]))\n" +
+            "if remain <= tonumber(ARGV[3]) then take = math.min(remain, tonumber(ARGV[2])) end\n" +
+            "if take > 0 then\n" +
+            "  redis.call('DECRBY', KEYS[1], take)\n" +
+            "  redis.call('HINCRBY', KEYS[2], ARGV[4], take)\n" +
+            "  redis.call('HINCRBY', KEYS[3], ARGV[4], take)\n" +
+            "end\n" +
+            "return take", Long.class);
+
+//    ARGV[1] : 반납수량, ARGV[2] : 정산할 임대 총량, ARGV[3] : 상품id
+    private static final RedisScript<Long> RETURN_SCRIPT = new DefaultRedisScript<>(
+            "if tonumber(ARGV[1]) > 0 then\n" +
+            "  redis.call('INCRBY', KEYS[1], ARGV[1])\n" +
+            "  redis.call('HINCRBY', KEYS[3], ARGV[3], -tonumber(ARGV[1]))\n" +
+            "end\n" +
+            "local leased = redis.call('HINCRBY', KEYS[2], ARGV[3], -tonumber(ARGV[2]))\n" +
+            "if leased <= 0 then redis.call('HDEL', KEYS[2], ARGV[3]) end\n" +
+            "return leased", Long.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final Map<Long, Lease> leaseMap = new ConcurrentHashMap<>();
+
+    @Value("${stock.lease.initial-size:50}")
+    private int initialSize;
+    @Value("${stock.lease.min-size:10}")
+    private int minSize;
+    @Value("${stock.lease.max-size:1000}")
+    private int maxSize;
+    @Value("${stock.lease.ttl-millis:30000}")
+    private long ttlMillis;
+    @Value("${stock.lease.target-refill-millis:1000}")
+    private long targetRefillMillis;
+    @Value("${stock.lease.low-stock-threshold:200}")
+    private int lowStockThreshold;
+//    종료시 임대분을 쓰는중인(redis 추가 임대중) 스레드를 기다리는 최대 시간
+    @Value("${stock.lease.shutdown-wait-millis:3000}")
+    private long shutdownWaitMillis;
+
+    public StockLeaseManager(@Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+//    여러 상품을 all-or-nothing으로 차감. 실패하면 이미 차감한 상품은 로컬 임대분으로 되돌린다.
+    public StockReservationDto reserve(Map<Long, Integer> quantityMap){
+        List<StockReserveLineDto> lines = new ArrayList<>();
+        boolean success = true;
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            Lease lease = leaseMap.computeIfAbsent(entry.getKey(), id -> new Lease(initialSize));
+            int remain = success ? decrease(entry.getKey(), lease, entry.getValue()) : -1;
+            if (remain < 0){
+                success = false;
+            }
+            lines.add(StockReserveLineDto.builder()
+                    .productId(entry.getKey())
+                    .productCount(entry.getValue())
+                    .remainQuantity((long) (remain < 0 ? lease.remain.get() : remain))
+                    .sufficient(remain >= 0)
+                    .build());
+        }
+        if (!success){
+            for (StockReserveLineDto line : lines){
+                if (line.isSufficient()){
+                    rollback(leaseMap.get(line.getProductId()), line.getProductCount());
+                }
+            }
+        }
+        return StockReservationDto.builder()
+                .success(success)
+                .lines(lines)
+                .build();
+    }
+
+//    반납과 섞이지 않도록 lock을 잡고 되돌린다.
+//    그 사이에 임대분이 반납(leasedTotal = 0)되었으면 되돌린 수량은 다음 반납 주기에 redis로 돌려준다.
+    private void rollback(Lease lease, int quantity){
+        lease.refillLock.lock();
+        try {
+            lease.remain.addAndGet(quantity);
+        } finally {
+            lease.refillLock.unlock();
+        }
+    }
+
+//    lock-free 경로 : 로컬 임대분이 충분하면 CAS로만 차감한다.
+//    반환값 : 차감 후 로컬 잔여수량, 재고가 부족하면 -1
+    private int decrease(Long productId, Lease lease, int quantity){
+        int remain = tryLocalDecrease(lease, quantity);
+        if (remain >= 0){
+            return remain;
+        }
+//        로컬 임대분 소진 : 한 스레드만 redis에서 추가 임대하고 나머지는 대기 후 다시 CAS 시도
+        lease.refillLock.lock();
+        try {
+            remain = tryLocalDecrease(lease, quantity);
+            if (remain >= 0){
+                return remain;
+            }
+            int need = quantity - Math.max(lease.remain.get(), 0);
+            int want = Math.max(lease.size, need);
+            Long taken = redisTemplate.execute(TAKE_SCRIPT,
+                    List.of(String.valueOf(productId), LEASE_HASH_KEY, StockInventoryService.PENDING_HASH_KEY),
+                    String.valueOf(want), String.valueOf(need), String.valueOf(lowStockThreshold), String.valueOf(productId));
+            if (taken == null || taken <= 0){
+                return -1;
+            }
+            long now = System.currentTimeMillis();
+            adjustSize(lease, now);
+            if (lease.leasedTotal == 0){
+                lease.leasedAt = now;
+            }
+            lease.leasedTotal += taken.intValue();
+            lease.remain.addAndGet(taken.intValue());
+//            가져온 수량으로도 부족하면 받아온 수량은 다른 주문을 위해 남겨두고 실패처리
+            return tryLocalDecrease(lease, quantity);
+        } finally {
+            lease.refillLock.unlock();
+        }
+    }
+
+    private int tryLocalDecrease(Lease lease, int quantity){
+        while (true){
+            int current = lease.remain.get();
+            if (current < quantity){
+                return -1;
+            }
+            if (lease.remain.compareAndSet(current, current - quantity)){
+                return current - quantity;
+            }
+        }
+    }
+
+//    재임대 간격이 짧으면(수요가 많으면) 임대크기를 늘리고, 길면 줄인다.
+    private void adjustSize(Lease lease, long now){
+        long lastRefillAt = lease.lastRefillAt;
+        lease.lastRefillAt = now;
+//        첫 임대는 비교대상이 없으므로 크기 유지
+        if (lastRefillAt == 0){
+            return;
+        }
+        long interval = now - lastRefillAt;
+        if (interval < targetRefillMillis){
+            lease.size = Math.min(maxSize, lease.size * 2);
+        } else if (interval > targetRefillMillis * 4){
+            lease.size = Math.max(minSize, lease.size / 2);
+        }
+    }
+
+//    만료된 임대분을 redis에 반납
+    @Scheduled(fixedDelayString = "${stock.lease.sweep-millis:1000}")
+    public void returnExpiredLeases(){
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, Lease> entry : leaseMap.entrySet()){
+            Lease lease = entry.getValue();
+//            임대분이 정산된 뒤 주문 실패로 되돌아온 수량은 만료를 기다리지 않고 반납
+            boolean orphaned = lease.leasedTotal == 0 && lease.remain.get() > 0;
+            if (orphaned || (lease.leasedTotal > 0 && now - lease.leasedAt >= ttlMillis)){
+//                lock을 쓰는중이면 다음 주기에 반납
+                if (lease.refillLock.tryLock()){
+                    returnLease(entry.getKey(), lease);
+                }
+            }
+        }
+    }
+
+//    서버 종료시 남은 임대분 전부 반납
+//    다음 주기가 없으므로 lock을 쓰는중인 스레드를 기다리고, 그래도 반납하지 못한 임대분은 로그로 남긴다. (재고 점검으로 복구)
+    @PreDestroy
+    public void returnAllLeases(){
+        long deadline = System.currentTimeMillis() + shutdownWaitMillis;
+        for (Map.Entry<Long, Lease> entry : leaseMap.entrySet()){
+            Lease lease = entry.getValue();
+            boolean locked;
+            try {
+                locked = lease.refillLock.tryLock(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                locked = false;
+            }
+            if (!locked || !returnLease(entry.getKey(), lease)){
+                log.error("종료시 재고 임대분 반납 실패 productId={} remain={} leasedTotal={}", entry.getKey(), lease.remain.get(), lease.leasedTotal);
+            }
+        }
+    }
+
+//    refillLock을 잡은 상태에서 호출하고, 여기서 lock을 푼다.
+//    반환값 : 반납 성공여부 (반납할 임대분이 없으면 true)
+    private boolean returnLease(Long productId, Lease lease){
+        int unused = 0;
+        try {
+            if (lease.leasedTotal == 0 && lease.remain.get() == 0){
+                return true;
+            }
+//            getAndSet은 CAS 차감과 원자적으로 경쟁하므로 반납한 수량이 동시에 판매되는 일은 없다.
+            unused = lease.remain.getAndSet(0);
+            redisTemplate.execute(RETURN_SCRIPT,
+                    List.of(String.valueOf(productId), LEASE_HASH_KEY, StockInventoryService.PENDING_HASH_KEY),
+                    String.valueOf(unused), String.valueOf(lease.leasedTotal), String.valueOf(productId));
+            lease.leasedTotal = 0;
+            return true;
+        } catch (Exception e){
+//            반납 실패시 수량을 잃어버리지 않도록 로컬 임대분으로 되돌리고 다음 주기에 재시도
+            lease.remain.addAndGet(unused);
+            log.error("재고 임대분 반납 실패 productId={} : {}", productId, e.getMessage());
+            return false;
+        } finally {
+            lease.refillLock.unlock();
+        }
+    }
+
+    private static class Lease {
+        private final AtomicInteger remain = new AtomicInteger();
+        private final ReentrantLock refillLock = new ReentrantLock();
+//        아래 값들은 refillLock을 잡은 상태에서만 변경
+        private volatile int size;
+        private volatile long leasedAt;
+        private volatile long lastRefillAt;
+        private volatile int leasedTotal;
+
+        private Lease(int size) {
+            this.size = size;
+        }
+    }
+}
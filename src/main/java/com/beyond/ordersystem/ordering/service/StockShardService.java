@@ -0,0 +1,277 @@
+package com.beyond.ordersystem.ordering.service;
+
+import com.beyond.ordersystem.ordering.dto.StockReservationDto;
+import com.beyond.ordersystem.ordering.dto.StockReserveLineDto;
+import com.beyond.ordersystem.ordering.dto.StockShardResDto;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// 인기상품 재고 분할 : 하나의 상품 재고를 K개의 키로 나누어 저장한다.
+// 분할키는 hash tag를 쓰지 않으므로 redis cluster에서 여러 노드로 분산되고, 모든 명령은 단일키 명령만 사용한다.
+// 분할된 상품의 원래 재고키는 0으로 두어서, 분할정보를 아직 모르는 서버가 차감을 시도해도 초과판매되지 않게 한다.
+@Slf4j
+@Component
+public class StockShardService {
+
+//    분할된 상품 목록 (상품id -> 분할개수)
+    public static final String SHARD_HASH_KEY = "stock-shard";
+
+//    분할키에서 원하는 수량만큼(부족하면 있는만큼) 차감. 반환값 : [차감수량, 남은수량]
+    private static final RedisScript<List> TAKE_SCRIPT = new DefaultRedisScript<>(
+            "local remain = tonumber(redis.call('GET', KEYS[1]) or '0')\n" +
+            "local take = math.min(remain, tonumber(ARGV[1]))\n" +
+            "if take > 0 then remain = redis.call('DECRBY', KEYS[1], take) end\n" +
+            "return {take, remain}", List.class);
+
+    private final RedisTemplate<String, String> redisTemplate;
+//    요청마다 redis 조회를 하지 않도록 분할정보는 서버 메모리에 캐싱하고 주기적으로 갱신
+    private final Map<Long, Integer> shardCountMap = new ConcurrentHashMap<>();
+//    분할 변경 뒤, 분할정보를 늦게 갱신한 서버가 반납한 수량을 다시 수거
+    private final ScheduledExecutorService sweepExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "stock-shard-sweep");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${stock.shard.refresh-millis:5000}")
+    private long refreshMillis;
+
+    public StockShardService(@Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        sweepExecutor.shutdownNow();
+    }
+
+    public static String shardKey(Long productId, int index){
+        return "stock-shard:" + productId + ":" + index;
+    }
+
+    @PostConstruct
+    @Scheduled(fixedDelayString = "${stock.shard.refresh-millis:5000}")
+    public void refreshShardCounts(){
+        try {
+            Map<Object, Object> entries = redisTemplate.opsForHash().entries(SHARD_HASH_KEY);
+            Map<Long, Integer> latest = new ConcurrentHashMap<>();
+            for (Map.Entry<Object, Object> entry : entries.entrySet()){
+                latest.put(Long.parseLong((String) entry.getKey()), Integer.parseInt((String) entry.getValue()));
+            }
+            shardCountMap.keySet().retainAll(latest.keySet());
+            shardCountMap.putAll(latest);
+        } catch (Exception e){
+            log.error("재고 분할정보 갱신 실패 : {}", e.getMessage());
+        }
+    }
+
+    public boolean isSharded(Long productId){
+        return shardCountMap.containsKey(productId);
+    }
+
+//    호출자 hash로 시작 분할키를 고르고, 부족하면 다음 분할키들에서 이어서 차감한다.
+//    모든 분할키를 돌아도 수량이 모자라면 차감했던 수량을 되돌리고 실패처리
+    public StockReservationDto reserve(Map<Long, Integer> quantityMap, int callerHash){
+        List<StockReserveLineDto> lines = new ArrayList<>();
+        Map<Long, Integer> reserved = new LinkedHashMap<>();
+        boolean success = true;
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            long remain = success ? take(entry.getKey(), entry.getValue(), callerHash) : -1;
+            if (remain < 0){
+                success = false;
+            } else {
+                reserved.put(entry.getKey(), entry.getValue());
+            }
+            lines.add(StockReserveLineDto.builder()
+                    .productId(entry.getKey())
+                    .productCount(entry.getValue())
+                    .remainQuantity(remain)
+                    .sufficient(remain >= 0)
+                    .build());
+        }
+        if (!success){
+            release(reserved, callerHash);
+        }
+        return StockReservationDto.builder()
+                .success(success)
+                .lines(lines)
+                .build();
+    }
+
+    public void release(Map<Long, Integer> quantityMap, int callerHash){
+        for (Map.Entry<Long, Integer> entry : quantityMap.entrySet()){
+            increase(entry.getKey(), entry.getValue(), callerHash);
+        }
+    }
+
+    public long increase(Long productId, int quantity, int callerHash){
+        int shardCount = shardCountMap.getOrDefault(productId, 1);
+        Long remain = redisTemplate.opsForValue().increment(shardKey(productId, Math.floorMod(callerHash, shardCount)), quantity);
+        return remain == null ? 0 : remain;
+    }
+
+//    반환값 : 마지막으로 차감한 분할키의 남은수량, 부족하면 -1
+    private long take(Long productId, int quantity, int callerHash){
+        int shardCount = shardCountMap.getOrDefault(productId, 1);
+        int start = Math.floorMod(callerHash, shardCount);
+        int need = quantity;
+        long lastRemain = 0;
+        Map<Integer, Integer> takenMap = new LinkedHashMap<>();
+        for (int i = 0; i < shardCount && need > 0; i++){
+            int index = (start + i) % shardCount;
+            List<Long> result = redisTemplate.execute(TAKE_SCRIPT, List.of(shardKey(productId, index)), String.valueOf(need));
+            int taken = result.get(0).intValue();
+            lastRemain = result.get(1);
+            if (taken > 0){
+                takenMap.put(index, taken);
+                need -= taken;
+            }
+        }
+        if (need > 0){
+            for (Map.Entry<Integer, Integer> entry : takenMap.entrySet()){
+                redisTemplate.opsForValue().increment(shardKey(productId, entry.getKey()), entry.getValue());
+            }
+            return -1;
+        }
+        return lastRemain;
+    }
+
+//    상품 재고를 shardCount개로 분할하거나, 이미 분할된 상품이면 재분배
+//    각 키는 GETSET 0 으로 원자적으로 비운 뒤 합계를 다시 나누므로, 작업 중 차감은 일시적으로 실패할 수는 있어도 수량이 중복되지 않는다.
+    public StockShardResDto rebalance(Long productId, int shardCount){
+        if (shardCount < 1){
+            throw new IllegalArgumentException("분할개수는 1 이상이어야 합니다.");
+        }
+        int oldCount = shardCountMap.getOrDefault(productId, 0);
+        long total = drain(productId, oldCount);
+        redisTemplate.opsForHash().put(SHARD_HASH_KEY, String.valueOf(productId), String.valueOf(shardCount));
+        shardCountMap.put(productId, shardCount);
+        distribute(productId, shardCount, total);
+//        분할정보가 갱신되지 않은 서버가 원래 재고키나 없어진 분할키로 반납한 수량을 다시 수거 (지금 1번, 모든 서버가 갱신한 뒤 1번 더)
+        collectStragglers(productId, shardCount, oldCount, shardKey(productId, 0));
+        scheduleStragglerSweep(productId, oldCount);
+        log.info("재고 분할 productId={} {} -> {}개, 총 {}", productId, oldCount, shardCount, total);
+        return getShardStatus(productId);
+    }
+
+//    분할을 해제하고 모든 분할키의 재고를 원래 재고키로 합친다.
+    public StockShardResDto merge(Long productId){
+        Integer oldCount = shardCountMap.get(productId);
+        if (oldCount == null){
+            throw new IllegalArgumentException("분할되지 않은 상품입니다.");
+        }
+        redisTemplate.opsForHash().delete(SHARD_HASH_KEY, String.valueOf(productId));
+        shardCountMap.remove(productId);
+        long total = drain(productId, oldCount);
+        redisTemplate.opsForValue().increment(String.valueOf(productId), total);
+        collectStragglers(productId, 0, oldCount, String.valueOf(productId));
+        scheduleStragglerSweep(productId, oldCount);
+        log.info("재고 분할 해제 productId={} {}개 -> 1, 총 {}", productId, oldCount, total);
+        return getShardStatus(productId);
+    }
+
+//    재고 재구성시 분할된 상품은 원래 재고키 대신 분할키에 수량을 다시 나눈다.
+    public void reset(Long productId, int quantity){
+        int shardCount = shardCountMap.getOrDefault(productId, 1);
+        drain(productId, shardCount);
+        distribute(productId, shardCount, quantity);
+    }
+
+    public StockShardResDto getShardStatus(Long productId){
+        int shardCount = shardCountMap.getOrDefault(productId, 0);
+        List<String> keys = new ArrayList<>();
+        if (shardCount == 0){
+            keys.add(String.valueOf(productId));
+        }
+        for (int i = 0; i < shardCount; i++){
+            keys.add(shardKey(productId, i));
+        }
+        List<Long> quantities = new ArrayList<>();
+        long total = 0;
+        for (String value : redisTemplate.opsForValue().multiGet(keys)){
+            long quantity = value == null ? 0 : Long.parseLong(value);
+            quantities.add(quantity);
+            total += quantity;
+        }
+        return StockShardResDto.builder()
+                .productId(productId)
+                .shardCount(shardCount)
+                .shardQuantities(quantities)
+                .totalQuantity(total)
+                .build();
+    }
+
+//    shardCount가 0이면 원래 재고키를 비운다.
+    private long drain(Long productId, int shardCount){
+        long total = 0;
+        if (shardCount == 0){
+            total += parse(redisTemplate.opsForValue().getAndSet(String.valueOf(productId), "0"));
+        }
+        for (int i = 0; i < shardCount; i++){
+            total += parse(redisTemplate.opsForValue().getAndSet(shardKey(productId, i), "0"));
+        }
+        return total;
+    }
+
+    private void distribute(Long productId, int shardCount, long total){
+        long each = total / shardCount;
+        long rest = total % shardCount;
+        for (int i = 0; i < shardCount; i++){
+            long quantity = each + (i < rest ? 1 : 0);
+            redisTemplate.opsForValue().increment(shardKey(productId, i), quantity);
+        }
+    }
+
+//    사용하지 않게 된 키(from ~ to-1 분할키, 분할상태이면 원래 재고키)에 남은 수량을 targetKey로 옮긴다.
+    private void collectStragglers(Long productId, int from, int to, String targetKey){
+        long rest = 0;
+        for (int i = from; i < to; i++){
+            rest += parse(redisTemplate.opsForValue().getAndDelete(shardKey(productId, i)));
+        }
+        if (from > 0){
+            rest += parse(redisTemplate.opsForValue().getAndSet(String.valueOf(productId), "0"));
+        }
+        if (rest != 0){
+            redisTemplate.opsForValue().increment(targetKey, rest);
+        }
+    }
+
+//    다른 서버는 refresh-millis마다 분할정보를 갱신하므로, 그 사이(최대 1주기)에 예전 키로 반납한 수량은 즉시 수거로 잡히지 않는다.
+//    2주기 뒤에 한번 더 수거하며, 그 사이에 분할이 다시 바뀌었을 수 있으므로 redis의 현재 분할개수 기준으로 옮긴다.
+    private void scheduleStragglerSweep(Long productId, int oldCount){
+        sweepExecutor.schedule(() -> {
+            try {
+                Object saved = redisTemplate.opsForHash().get(SHARD_HASH_KEY, String.valueOf(productId));
+                int current = saved == null ? 0 : Integer.parseInt((String) saved);
+                if (current > 0){
+                    collectStragglers(productId, current, oldCount, shardKey(productId, 0));
+                } else {
+                    collectStragglers(productId, 0, oldCount, String.valueOf(productId));
+                }
+            } catch (Exception e){
+                log.error("재고 분할 잔여수량 수거 실패 productId={} : {}", productId, e.getMessage());
+            }
+        }, refreshMillis * 2, TimeUnit.MILLISECONDS);
+    }
+
+    private long parse(String value){
+        return value == null ? 0 : Long.parseLong(value);
+    }
+}
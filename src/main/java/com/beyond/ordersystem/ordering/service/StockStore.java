@@ -0,0 +1,41 @@
+package com.beyond.ordersystem.ordering.service;
+
+import com.beyond.ordersystem.common.dto.StockRabbitMqDto;
+import com.beyond.ordersystem.ordering.dto.StockReservationDto;
+
+import java.util.List;
+import java.util.Map;
+
+// 상품별 재고 카운터 저장소
+// redis(여러 서버가 공유)와 서버 메모리(단일 서버 배포, redis 없는 테스트) 구현이 있으며 stock.store 설정으로 선택한다.
+// 임대/분할/예약 같은 부가기능은 StockInventoryService에서 redis 저장소일때만 조합한다.
+public interface StockStore {
+
+    void makeStockQuantity(Long productId, int quantity);
+
+//    overwrite=false 이면 재고가 없는 상품만 세팅. 반환값 : 실제로 세팅된 상품id (반영대기 수량도 초기화됨)
+    List<Long> makeStockQuantities(Map<Long, Integer> quantityMap, boolean overwrite, int batchSize);
+
+    long increaseStockQuantity(Long productId, int quantity);
+
+//    여러 상품의 재고를 한번에 증가 (주문 일괄취소), 반영대기 수량은 건드리지 않는다.
+    void increaseStockQuantities(Map<Long, Integer> quantityMap);
+
+//    모든 상품이 충분할때만 전부 차감(all-or-nothing)하고 차감분을 반영대기 수량에 더한다.
+    StockReservationDto reserve(Map<Long, Integer> quantityMap);
+
+//    reserve로 차감했던 수량을 되돌리고 반영대기 수량에서 뺀다.
+    void release(Map<Long, Integer> quantityMap);
+
+//    sign : 1 이면 증가, -1 이면 감소
+    void addPendingQuantities(Map<Long, Integer> quantityMap, int sign);
+
+    void clearPendingQuantities(List<Long> productIds);
+
+//    line id(메시지id:상품id) -> 반영된 상품/수량 : line마다 한번만 반영대기 수량을 줄이고, 줄인 line id는 markerTtlMillis 동안 기억한다.
+//    rdb commit 후 감소 전에 죽어서 다시 전달된 line은 줄이고, 이미 줄인 line이 다시 와도 두번 줄이지 않는다.
+    void completePendingLines(Map<String, StockRabbitMqDto> lines, long markerTtlMillis);
+
+//    상품별 (재고 + 반영대기 수량), 재고가 없는 상품은 결과에서 빠진다.
+    Map<Long, Long> getCommittedStockQuantities(List<Long> productIds);
+}
@@ -1,11 +1,21 @@
 package com.beyond.ordersystem.product.controller;
 
 import com.beyond.ordersystem.common.dto.CommonDto;
+import com.beyond.ordersystem.common.dto.StockDeadLetterResDto;
+import com.beyond.ordersystem.common.dto.StockPartitionResDto;
+import com.beyond.ordersystem.common.service.StockPartitionService;
+import com.beyond.ordersystem.common.service.StockRetryService;
+import com.beyond.ordersystem.ordering.dto.StockShardResDto;
+import com.beyond.ordersystem.ordering.service.StockShardService;
 import com.beyond.ordersystem.product.dto.ProductSearchDto;
 import com.beyond.ordersystem.product.dto.ProductCreateDto;
 import com.beyond.ordersystem.product.dto.ProductResDto;
 import com.beyond.ordersystem.product.dto.ProductUpdateDto;
+import com.beyond.ordersystem.product.dto.StockRebuildResDto;
+import com.beyond.ordersystem.product.dto.StockReconcileResDto;
 import com.beyond.ordersystem.product.service.ProductService;
+import com.beyond.ordersystem.product.service.StockRebuildService;
+import com.beyond.ordersystem.product.service.StockReconcileService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.java.Log;
@@ -24,6 +34,11 @@ import org.springframework.web.bind.annotation.*;
 @RequestMapping("/product")
 public class ProductController {
     private final ProductService productService;
+    private final StockRebuildService stockRebuildService;
+    private final StockShardService stockShardService;
+    private final StockReconcileService stockReconcileService;
+    private final StockPartitionService stockPartitionService;
+    private final StockRetryService stockRetryService;
 
 //    @PostMapping("/create")
 //    @PreAuthorize("hasRole('ADMIN')")
@@ -103,4 +118,121 @@ public class ProductController {
             return (new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST));
         }
     }
+
+//    redis 재고를 상품 테이블 기준으로 재구성 (overwrite=false 이면 없는 키만 채움)
+    @PostMapping("/stock/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> rebuildStock(@RequestParam(defaultValue = "false") boolean overwrite){
+        StockRebuildResDto stockRebuildResDto = stockRebuildService.rebuild(overwrite);
+        return new ResponseEntity<>(
+                CommonDto.builder()
+                        .result(stockRebuildResDto)
+                        .status_code(HttpStatus.OK.value())
+                        .status_message("재고 재구성 완료")
+                        .build(), HttpStatus.OK);
+    }
+
+//    redis와 rdb 재고 불일치 점검 (지난번 점검위치부터 chunks개 구간만큼)
+    @PostMapping("/stock/reconcile")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> reconcileStock(@RequestParam(defaultValue = "20") int chunks){
+        StockReconcileResDto stockReconcileResDto = stockReconcileService.reconcile(chunks);
+        return new ResponseEntity<>(
+                CommonDto.builder()
+                        .result(stockReconcileResDto)
+                        .status_code(HttpStatus.OK.value())
+                        .status_message("재고 점검 완료")
+                        .build(), HttpStatus.OK);
+    }
+
+//    인기상품 재고 분할상태 조회
+    @GetMapping("/stock/shard/{id}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> shardStatus(@PathVariable Long id){
+        StockShardResDto stockShardResDto = stockShardService.getShardStatus(id);
+        return new ResponseEntity<>(
+                CommonDto.builder()
+                        .result(stockShardResDto)
+                        .status_code(HttpStatus.OK.value())
+                        .status_message("재고 분할상태 조회 성공")
+                        .build(), HttpStatus.OK);
+    }
+
+//    재고를 shardCount개로 분할 (이미 분할된 상품이면 재분배)
+    @PostMapping("/stock/shard/{id}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> rebalanceShard(@PathVariable Long id, @RequestParam int shardCount){
+        StockShardResDto stockShardResDto = stockShardService.rebalance(id, shardCount);
+        return new ResponseEntity<>(
+                CommonDto.builder()
+                        .result(stockShardResDto)
+                        .status_code(HttpStatus.OK.value())
+                        .status_message("재고 분할 완료")
+                        .build(), HttpStatus.OK);
+    }
+
+//    분할 해제 : 분할키의 재고를 원래 재고키로 합친다.
+    @DeleteMapping("/stock/shard/{id}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> mergeShard(@PathVariable Long id){
+        StockShardResDto stockShardResDto = stockShardService.merge(id);
+        return new ResponseEntity<>(
+                CommonDto.builder()
+                        .result(stockShardResDto)
+                        .status_code(HttpStatus.OK.value())
+                        .status_message("재고 분할 해제 완료")
+                        .build(), HttpStatus.OK);
+    }
+
+//    재고 반영 queue partition 상태 조회
+    @GetMapping("/stock/partition")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> partitionStatus(){
+        StockPartitionResDto stockPartitionResDto = stockPartitionService.getStatus();
+        return new ResponseEntity<>(
+                CommonDto.builder()
+                        .result(stockPartitionResDto)
+                        .status_code(HttpStatus.OK.value())
+                        .status_message("재고 partition 조회 성공")
+                        .build(), HttpStatus.OK);
+    }
+
+//    재고 반영 queue partition 개수 변경 (발행 중지 -> 기존 queue 소진 -> 변경 -> 발행 재개)
+    @PostMapping("/stock/partition")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> rebalancePartition(@RequestParam int partitionCount) throws InterruptedException {
+        StockPartitionResDto stockPartitionResDto = stockPartitionService.rebalance(partitionCount);
+        return new ResponseEntity<>(
+                CommonDto.builder()
+                        .result(stockPartitionResDto)
+                        .status_code(HttpStatus.OK.value())
+                        .status_message("재고 partition 재분배 완료")
+                        .build(), HttpStatus.OK);
+    }
+
+//    재고 반영 dead letter queue 조회
+    @GetMapping("/stock/dead-letter")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> deadLetterStatus(){
+        StockDeadLetterResDto stockDeadLetterResDto = stockRetryService.getDeadLetterStatus();
+        return new ResponseEntity<>(
+                CommonDto.builder()
+                        .result(stockDeadLetterResDto)
+                        .status_code(HttpStatus.OK.value())
+                        .status_message("재고 dead letter 조회 성공")
+                        .build(), HttpStatus.OK);
+    }
+
+//    재고 반영 dead letter 메시지를 원래 queue로 다시 넣기 (원인을 고친 뒤 호출)
+    @PostMapping("/stock/dead-letter/replay")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> replayDeadLetter(@RequestParam(defaultValue = "100") int max){
+        StockDeadLetterResDto stockDeadLetterResDto = stockRetryService.replay(max);
+        return new ResponseEntity<>(
+                CommonDto.builder()
+                        .result(stockDeadLetterResDto)
+                        .status_code(HttpStatus.OK.value())
+                        .status_message("재고 dead letter replay 완료")
+                        .build(), HttpStatus.OK);
+    }
 }
@@ -0,0 +1,16 @@
+package com.beyond.ordersystem.product.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// 재고 동기화 작업에서 엔티티 대신 필요한 컬럼만 조회하기 위한 dto
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+public class ProductStockDto {
+    private Long id;
+    private Integer stockQuantity;
+}
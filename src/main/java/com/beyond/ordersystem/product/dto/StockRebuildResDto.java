@@ -0,0 +1,18 @@
+package com.beyond.ordersystem.product.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+public class StockRebuildResDto {
+    private boolean overwrite;
+    private long productCount;
+    private long writtenCount;
+    private long elapsedMillis;
+    private long productsPerSecond;
+}
@@ -0,0 +1,22 @@
+package com.beyond.ordersystem.product.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+@Builder
+public class StockReconcileResDto {
+    private long checkedCount;
+//    재확인 후에도 redis와 rdb가 다른 상품 수와 차이 수량 합계(절대값)
+    private long driftCount;
+    private long driftQuantity;
+    private long correctedCount;
+//    redis에 재고키가 없는 상품 수
+    private long missingCount;
+    private Long nextProductId;
+    private long elapsedMillis;
+}
@@ -1,13 +1,33 @@
 package com.beyond.ordersystem.product.repository;
 
 import com.beyond.ordersystem.product.domain.Product;
+import com.beyond.ordersystem.product.dto.ProductStockDto;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
 
 @Repository
 public interface ProductRepository extends JpaRepository<Product, Long> {
     Page<Product> findAll(Specification<Product> specification, Pageable pageable);
+
+//    id 기준 keyset 조회 : offset 없이 마지막 id 다음부터 읽으므로 상품이 많아도 페이지당 비용이 일정하다.
+    @Query("select new com.beyond.ordersystem.product.dto.ProductStockDto(p.id, p.stockQuantity) from Product p where p.id > :lastId order by p.id asc")
+    List<ProductStockDto> findStockChunk(@Param("lastId") Long lastId, Pageable pageable);
+
+    @Query("select new com.beyond.ordersystem.product.dto.ProductStockDto(p.id, p.stockQuantity) from Product p where p.id in :ids")
+    List<ProductStockDto> findStockByIds(@Param("ids") List<Long> ids);
+
+//    조회 후 수정이 아닌 상대값 update로 반영하므로, 동시에 들어오는 재고 반영과 덮어쓰기 경쟁이 없다.
+    @Transactional
+    @Modifying(clearAutomatically = true)
+    @Query("update Product p set p.stockQuantity = p.stockQuantity + :delta where p.id = :id")
+    int adjustStockQuantity(@Param("id") Long id, @Param("delta") int delta);
 }
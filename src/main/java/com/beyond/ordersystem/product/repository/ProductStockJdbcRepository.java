@@ -0,0 +1,44 @@
+package com.beyond.ordersystem.product.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// 여러 상품의 재고를 엔티티 조회 없이 상대값 update로 한번에 반영 (JDBC batch)
+// 호출하는 쪽의 트랜잭션(JPA)과 같은 connection을 사용한다.
+@Repository
+@RequiredArgsConstructor
+public class ProductStockJdbcRepository {
+
+    private static final String ADJUST_SQL = "update product set stock_quantity = stock_quantity + ? where id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+//    deltaMap : 상품id -> 증감수량(차감이면 음수)
+//    반환값 : 반영되지 않은(존재하지 않는) 상품id 목록
+//    여러 소비자가 같은 상품들을 update할 때 lock 순서가 엇갈리지 않도록 정렬된 map(TreeMap)을 넘긴다.
+    public List<Long> adjustStockQuantities(Map<Long, Integer> deltaMap){
+        List<Long> missingIds = new ArrayList<>();
+        if (deltaMap.isEmpty()){
+            return missingIds;
+        }
+        List<Long> productIds = new ArrayList<>();
+        List<Object[]> args = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : deltaMap.entrySet()){
+            productIds.add(entry.getKey());
+            args.add(new Object[]{entry.getValue(), entry.getKey()});
+        }
+        int[] counts = jdbcTemplate.batchUpdate(ADJUST_SQL, args);
+        for (int i = 0; i < counts.length; i++){
+//            드라이버가 batch 결과를 개별로 돌려주지 않으면 SUCCESS_NO_INFO(-2)가 오는데, 이 경우는 반영된 것으로 본다.
+            if (counts[i] == 0){
+                missingIds.add(productIds.get(i));
+            }
+        }
+        return missingIds;
+    }
+}
@@ -0,0 +1,98 @@
+package com.beyond.ordersystem.product.service;
+
+import com.beyond.ordersystem.ordering.service.StockInventoryService;
+import com.beyond.ordersystem.product.dto.ProductStockDto;
+import com.beyond.ordersystem.product.dto.StockRebuildResDto;
+import com.beyond.ordersystem.product.repository.ProductRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// redis(stockInventory)의 재고를 상품 테이블 기준으로 다시 채우는 작업
+// redis flush/failover 이후 재고키가 없으면 모든 주문이 실패하므로 기동시와 관리자 요청시에 실행한다.
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StockRebuildService implements CommandLineRunner {
+    private final ProductRepository productRepository;
+    private final StockInventoryService stockInventoryService;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    @Value("${stock.rebuild.on-startup:true}")
+    private boolean onStartup;
+    @Value("${stock.rebuild.page-size:5000}")
+    private int pageSize;
+    @Value("${stock.rebuild.batch-size:1000}")
+    private int batchSize;
+    @Value("${stock.rebuild.log-interval-millis:2000}")
+    private long logIntervalMillis;
+
+//    기동시에는 redis에 없는 상품만 채운다. (이미 주문으로 차감된 값을 덮어쓰지 않기 위함)
+    @Override
+    public void run(String... args) throws Exception {
+        if (!onStartup){
+            return;
+        }
+        rebuild(false);
+    }
+
+//    overwrite=true 는 redis 재고를 rdb 값으로 덮어쓰므로 주문 유입을 막은 상태에서 실행해야 한다.
+    public StockRebuildResDto rebuild(boolean overwrite){
+        if (!running.compareAndSet(false, true)){
+            throw new IllegalArgumentException("이미 재고 재구성 작업이 진행중입니다.");
+        }
+        try {
+            long start = System.currentTimeMillis();
+            long lastLogged = start;
+            long productCount = 0;
+            long writtenCount = 0;
+            Long lastId = 0L;
+            while (true){
+                List<ProductStockDto> chunk = productRepository.findStockChunk(lastId, PageRequest.of(0, pageSize));
+                if (chunk.isEmpty()){
+                    break;
+                }
+                Map<Long, Integer> quantityMap = new LinkedHashMap<>();
+                for (ProductStockDto dto : chunk){
+                    quantityMap.put(dto.getId(), dto.getStockQuantity() == null ? 0 : dto.getStockQuantity());
+                }
+                writtenCount += stockInventoryService.makeStockQuantities(quantityMap, overwrite, batchSize);
+                productCount += chunk.size();
+                lastId = chunk.get(chunk.size() - 1).getId();
+
+                long now = System.currentTimeMillis();
+                if (now - lastLogged >= logIntervalMillis){
+                    log.info("재고 재구성 진행중 : {}건 처리, {}건/초, 마지막 id {}", productCount, perSecond(productCount, now - start), lastId);
+                    lastLogged = now;
+                }
+                if (chunk.size() < pageSize){
+                    break;
+                }
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            log.info("재고 재구성 완료 : 상품 {}건, redis 반영 {}건, {}ms, {}건/초 (overwrite={})",
+                    productCount, writtenCount, elapsed, perSecond(productCount, elapsed), overwrite);
+            return StockRebuildResDto.builder()
+                    .overwrite(overwrite)
+                    .productCount(productCount)
+                    .writtenCount(writtenCount)
+                    .elapsedMillis(elapsed)
+                    .productsPerSecond(perSecond(productCount, elapsed))
+                    .build();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private long perSecond(long count, long elapsedMillis){
+        return elapsedMillis == 0 ? count : count * 1000 / elapsedMillis;
+    }
+}
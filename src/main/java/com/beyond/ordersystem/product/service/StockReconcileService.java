@@ -0,0 +1,273 @@
+package com.beyond.ordersystem.product.service;
+
+import com.beyond.ordersystem.ordering.service.StockInventoryService;
+import com.beyond.ordersystem.product.dto.ProductStockDto;
+import com.beyond.ordersystem.product.dto.StockReconcileResDto;
+import com.beyond.ordersystem.product.repository.ProductRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// redis 재고와 rdb 재고(Product.stockQuantity)의 차이를 점검하는 작업
+// 정상이라면 rdb 재고 = redis 재고 + 아직 rdb에 반영되지 않은 수량(stock-pending) 이어야 한다.
+// 상품을 id 순서로 일정 크기씩 나누어 점검하고, 다음 실행은 이어서 점검한다.
+// 초당 점검 상품수를 제한하여 주문 처리와 db/redis 자원을 다투지 않게 한다.
+// 점검은 대기(recheck, pace)를 포함해 오래 걸리므로 스케쥴 스레드가 아닌 전용 스레드에서 실행한다. (outbox 중계 등 다른 스케쥴 작업이 밀리지 않게)
+@Slf4j
+@Service
+public class StockReconcileService {
+
+//    REPORT : 지표만 기록, REDIS : redis를 rdb 기준으로 보정, DB : rdb를 redis 기준으로 보정
+    public enum Policy {
+        REPORT, REDIS, DB
+    }
+
+    private static final String LOCK_KEY = "stock-reconcile-lock";
+    private static final RedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end\n" +
+            "return 0", Long.class);
+
+    private final ProductRepository productRepository;
+    private final StockInventoryService stockInventoryService;
+    private final RedisTemplate<String, String> redisTemplate;
+
+    private final Counter checkedCounter;
+    private final Counter driftCounter;
+    private final Counter missingCounter;
+    private final Counter correctedCounter;
+    private final DistributionSummary driftSummary;
+    private final Timer runTimer;
+//    마지막 점검 구간에서 발견된 차이 (gauge)
+    private final AtomicLong lastDriftCount = new AtomicLong();
+    private final AtomicLong lastDriftQuantity = new AtomicLong();
+    private final ExecutorService reconcileExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "stock-reconcile");
+        thread.setDaemon(true);
+        return thread;
+    });
+//    이전 스케쥴 점검이 아직 실행중이면 새로 넣지 않는다.
+    private final AtomicBoolean scheduledRunning = new AtomicBoolean();
+
+//    다음 점검을 시작할 상품id (끝까지 점검하면 0부터 다시)
+    private volatile Long cursor = 0L;
+
+    @Value("${stock.reconcile.enabled:true}")
+    private boolean enabled;
+    @Value("${stock.reconcile.policy:REPORT}")
+    private Policy policy;
+//    이 수량보다 큰 차이는 자동보정하지 않고 지표/로그만 남긴다.
+    @Value("${stock.reconcile.max-correction:100}")
+    private int maxCorrection;
+    @Value("${stock.reconcile.chunk-size:500}")
+    private int chunkSize;
+    @Value("${stock.reconcile.chunks-per-run:20}")
+    private int chunksPerRun;
+    @Value("${stock.reconcile.max-products-per-second:2000}")
+    private int maxProductsPerSecond;
+//    소비자가 commit 직후 pending을 줄이기 전 순간에 읽은 값을 차이로 오인하지 않도록 잠시 후 다시 확인
+    @Value("${stock.reconcile.recheck-delay-millis:200}")
+    private long recheckDelayMillis;
+
+    public StockReconcileService(ProductRepository productRepository, StockInventoryService stockInventoryService,
+                                 @Qualifier("stockInventory") RedisTemplate<String, String> redisTemplate, MeterRegistry meterRegistry) {
+        this.productRepository = productRepository;
+        this.stockInventoryService = stockInventoryService;
+        this.redisTemplate = redisTemplate;
+        this.checkedCounter = meterRegistry.counter("stock.reconcile.checked");
+        this.driftCounter = meterRegistry.counter("stock.reconcile.drift");
+        this.missingCounter = meterRegistry.counter("stock.reconcile.missing");
+        this.correctedCounter = meterRegistry.counter("stock.reconcile.corrected");
+        this.driftSummary = DistributionSummary.builder("stock.reconcile.drift.quantity")
+                .description("redis와 rdb 재고 차이 수량(절대값)")
+                .register(meterRegistry);
+        this.runTimer = meterRegistry.timer("stock.reconcile.duration");
+        meterRegistry.gauge("stock.reconcile.last.drift.count", lastDriftCount);
+        meterRegistry.gauge("stock.reconcile.last.drift.quantity", lastDriftQuantity);
+    }
+
+    @Scheduled(fixedDelayString = "${stock.reconcile.interval-millis:60000}", initialDelayString = "${stock.reconcile.initial-delay-millis:60000}")
+    public void scheduledReconcile(){
+        if (!enabled || !scheduledRunning.compareAndSet(false, true)){
+            return;
+        }
+        try {
+            reconcileExecutor.execute(() -> {
+                try {
+                    reconcile(chunksPerRun);
+                } catch (IllegalArgumentException e){
+                    log.info(e.getMessage());
+                } catch (Exception e){
+                    log.error("재고 점검 실패 : {}", e.getMessage());
+                } finally {
+                    scheduledRunning.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e){
+            scheduledRunning.set(false);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown(){
+        reconcileExecutor.shutdownNow();
+    }
+
+//    여러 서버가 동시에 점검/보정하지 않도록 redis lock을 잡고 실행
+    public StockReconcileResDto reconcile(int maxChunks){
+        String token = UUID.randomUUID().toString();
+        Boolean locked = redisTemplate.opsForValue().setIfAbsent(LOCK_KEY, token, Duration.ofMinutes(10));
+        if (!Boolean.TRUE.equals(locked)){
+            throw new IllegalArgumentException("다른 서버에서 재고 점검이 진행중입니다.");
+        }
+        try {
+            return runTimer.record(() -> reconcileChunks(maxChunks));
+        } finally {
+            redisTemplate.execute(UNLOCK_SCRIPT, List.of(LOCK_KEY), token);
+        }
+    }
+
+    private StockReconcileResDto reconcileChunks(int maxChunks){
+        long start = System.currentTimeMillis();
+        long checked = 0;
+        long driftCount = 0;
+        long driftQuantity = 0;
+        long corrected = 0;
+        long missing = 0;
+        for (int c = 0; c < maxChunks; c++){
+            List<ProductStockDto> chunk = productRepository.findStockChunk(cursor, PageRequest.of(0, chunkSize));
+            if (chunk.isEmpty()){
+                cursor = 0L;
+                break;
+            }
+            List<Long> ids = new ArrayList<>();
+            for (ProductStockDto dto : chunk){
+                ids.add(dto.getId());
+            }
+            Map<Long, Long> redisMap = stockInventoryService.getCommittedStockQuantities(ids);
+            missing += ids.size() - redisMap.size();
+            Map<Long, Long> driftMap = findDrift(chunk, redisMap);
+            if (!driftMap.isEmpty()){
+                driftMap = recheck(driftMap);
+            }
+            for (Map.Entry<Long, Long> entry : driftMap.entrySet()){
+                long drift = entry.getValue();
+                driftCount++;
+                driftQuantity += Math.abs(drift);
+                driftSummary.record(Math.abs(drift));
+                log.warn("재고 불일치 productId={} rdb-redis={} (policy={})", entry.getKey(), drift, policy);
+                if (correct(entry.getKey(), drift)){
+                    corrected++;
+                }
+            }
+            checked += chunk.size();
+            cursor = chunk.get(chunk.size() - 1).getId();
+            if (chunk.size() < chunkSize){
+                cursor = 0L;
+                break;
+            }
+            pace(start, checked);
+        }
+        checkedCounter.increment(checked);
+        driftCounter.increment(driftCount);
+        missingCounter.increment(missing);
+        correctedCounter.increment(corrected);
+        lastDriftCount.set(driftCount);
+        lastDriftQuantity.set(driftQuantity);
+        return StockReconcileResDto.builder()
+                .checkedCount(checked)
+                .driftCount(driftCount)
+                .driftQuantity(driftQuantity)
+                .correctedCount(corrected)
+                .missingCount(missing)
+                .nextProductId(cursor)
+                .elapsedMillis(System.currentTimeMillis() - start)
+                .build();
+    }
+
+//    반환값 : 상품id -> (rdb 재고 - redis 기준 재고), redis에 키가 없는 상품은 제외
+    private Map<Long, Long> findDrift(List<ProductStockDto> products, Map<Long, Long> redisMap){
+        Map<Long, Long> driftMap = new LinkedHashMap<>();
+        for (ProductStockDto dto : products){
+            Long redisQuantity = redisMap.get(dto.getId());
+            if (redisQuantity == null){
+                continue;
+            }
+            long dbQuantity = dto.getStockQuantity() == null ? 0 : dto.getStockQuantity();
+            if (dbQuantity != redisQuantity){
+                driftMap.put(dto.getId(), dbQuantity - redisQuantity);
+            }
+        }
+        return driftMap;
+    }
+
+//    잠시 후 다시 읽어서 차이가 그대로인 상품만 실제 불일치로 본다.
+    private Map<Long, Long> recheck(Map<Long, Long> driftMap){
+        try {
+            Thread.sleep(recheckDelayMillis);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        List<Long> ids = new ArrayList<>(driftMap.keySet());
+        Map<Long, Long> again = findDrift(productRepository.findStockByIds(ids), stockInventoryService.getCommittedStockQuantities(ids));
+        Map<Long, Long> confirmed = new LinkedHashMap<>();
+        for (Map.Entry<Long, Long> entry : again.entrySet()){
+            if (entry.getValue().equals(driftMap.get(entry.getKey()))){
+                confirmed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return confirmed;
+    }
+
+    private boolean correct(Long productId, long drift){
+        if (policy == Policy.REPORT || Math.abs(drift) > maxCorrection){
+            return false;
+        }
+//        절대값 SET이 아닌 상대값 증감으로 보정하여, 보정 중에 들어온 주문 차감을 덮어쓰지 않는다.
+        if (policy == Policy.REDIS){
+            stockInventoryService.increaseStockQuantity(productId, (int) drift);
+        } else {
+            productRepository.adjustStockQuantity(productId, (int) -drift);
+        }
+        log.info("재고 보정 productId={} {} 기준으로 {} 보정", productId, policy == Policy.REDIS ? "rdb" : "redis", drift);
+        return true;
+    }
+
+//    초당 점검 상품수를 넘지 않도록 대기
+    private void pace(long start, long checked){
+        if (maxProductsPerSecond <= 0){
+            return;
+        }
+        long expected = checked * 1000 / maxProductsPerSecond;
+        long elapsed = System.currentTimeMillis() - start;
+        if (expected > elapsed){
+            try {
+                Thread.sleep(expected - elapsed);
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.beyond.ordersystem.common.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+
+// 재고 반영 메시지 변환기별 메시지 크기, 변환 처리량, 메시지당 할당량 비교 (./gradlew benchmark 로 실행)
+@Tag("benchmark")
+class StockEventCodecBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(StockEventCodecBenchmark.class);
+    private static final int WARMUP = 50_000;
+    private static final int ROUNDS = 500_000;
+
+    @Test
+    void compareCodecs(){
+        StockEventCodec[] codecs = {new JsonStockEventCodec(new ObjectMapper()), new BinaryStockEventCodec()};
+        for (int lineCount : new int[]{1, 5, 20}){
+            var event = StockEventCodecTest.event(lineCount);
+            for (StockEventCodec codec : codecs){
+                for (int i = 0; i < WARMUP; i++){
+                    codec.decode(codec.encode(event));
+                }
+                long allocatedBefore = allocatedBytes();
+                long startedAt = System.nanoTime();
+                for (int i = 0; i < ROUNDS; i++){
+                    codec.decode(codec.encode(event));
+                }
+                double seconds = (System.nanoTime() - startedAt) / 1_000_000_000.0;
+                long allocatedPerRound = (allocatedBytes() - allocatedBefore) / ROUNDS;
+                log.info("{} 상품 {}개 : {}byte, encode+decode {} ops/s, 메시지당 할당 {}byte",
+                        codec.contentType(), lineCount, codec.encode(event).length, Math.round(ROUNDS / seconds), allocatedPerRound);
+            }
+        }
+    }
+
+//    현재 스레드가 지금까지 할당한 byte 수 (HotSpot 확장 api, 지원하지 않으면 -1)
+    private static long allocatedBytes(){
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean){
+            return threadMXBean.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,126 @@
+package com.beyond.ordersystem.common.service;
+
+import com.beyond.ordersystem.common.dto.StockOrderEventDto;
+import com.beyond.ordersystem.common.dto.StockRabbitMqDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// 재고 반영 메시지 변환기(json/binary)가 같은 메시지를 주고받는지, 잘못된 입력은 IllegalArgumentException으로 거절하는지 확인
+class StockEventCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonStockEventCodec jsonCodec = new JsonStockEventCodec(objectMapper);
+    private final BinaryStockEventCodec binaryCodec = new BinaryStockEventCodec();
+
+    @Test
+    void jsonRoundTrip(){
+        StockOrderEventDto event = event(3);
+        assertEquals(event, jsonCodec.decode(jsonCodec.encode(event)));
+    }
+
+    @Test
+    void binaryRoundTrip(){
+        StockOrderEventDto event = event(3);
+        byte[] body = binaryCodec.encode(event);
+//        헤더 21byte + 상품마다 12byte
+        assertEquals(21 + 12 * 3, body.length);
+        assertEquals(event, binaryCodec.decode(body));
+    }
+
+//    주문id/생성시각이 없는 메시지는 0으로 보내고 null로 읽는다.
+    @Test
+    void binaryKeepsMissingHeaderFieldsNull(){
+        StockOrderEventDto event = StockOrderEventDto.builder()
+                .lines(List.of(new StockRabbitMqDto(7L, 2)))
+                .build();
+        StockOrderEventDto decoded = binaryCodec.decode(binaryCodec.encode(event));
+        assertNull(decoded.getOrderingId());
+        assertNull(decoded.getCreatedAt());
+        assertEquals(event.getLines(), decoded.getLines());
+    }
+
+//    이전 형식(상품 1개 단위) json 메시지도 주문 메시지로 읽는다.
+    @Test
+    void jsonDecodesLegacyPerLineMessage(){
+        byte[] body = "{\"productId\":42,\"productCount\":5}".getBytes(StandardCharsets.UTF_8);
+        StockOrderEventDto decoded = jsonCodec.decode(body);
+        assertNull(decoded.getOrderingId());
+        assertEquals(List.of(new StockRabbitMqDto(42L, 5)), decoded.getLines());
+    }
+
+    @Test
+    void codecsPickDecoderByContentType(){
+        StockEventCodecs codecs = new StockEventCodecs(List.of(jsonCodec, binaryCodec), jsonCodec, binaryCodec, "binary");
+        StockOrderEventDto event = event(2);
+        assertEquals(event, codecs.decode(message(binaryCodec.encode(event), BinaryStockEventCodec.CONTENT_TYPE)));
+        assertEquals(event, codecs.decode(message(jsonCodec.encode(event), MessageProperties.CONTENT_TYPE_JSON)));
+//        content-type이 없으면 json
+        assertEquals(event, codecs.decode(message(jsonCodec.encode(event), null)));
+    }
+
+    @Test
+    void binaryRejectsMalformedBody(){
+        byte[] body = binaryCodec.encode(event(2));
+        assertThrows(IllegalArgumentException.class, () -> binaryCodec.decode(new byte[3]));
+//        잘린 메시지
+        byte[] truncated = new byte[body.length - 1];
+        System.arraycopy(body, 0, truncated, 0, truncated.length);
+        assertThrows(IllegalArgumentException.class, () -> binaryCodec.decode(truncated));
+//        모르는 버전
+        byte[] wrongVersion = body.clone();
+        wrongVersion[0] = 9;
+        assertThrows(IllegalArgumentException.class, () -> binaryCodec.decode(wrongVersion));
+        assertThrows(IllegalArgumentException.class, () -> binaryCodec.decode(header(-1)));
+    }
+
+//    상품수 2^30 이면 21 + 12 * count 가 int overflow로 21이 되어 헤더만 있는 메시지와 길이가 같아진다.
+    @Test
+    void binaryRejectsLineCountOverflow(){
+        assertThrows(IllegalArgumentException.class, () -> binaryCodec.decode(header(1 << 30)));
+        assertThrows(IllegalArgumentException.class, () -> binaryCodec.decode(header(Integer.MAX_VALUE)));
+    }
+
+    @Test
+    void jsonRejectsMalformedBody(){
+        assertThrows(IllegalArgumentException.class, () -> jsonCodec.decode("{not json".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static StockOrderEventDto event(int lineCount){
+        List<StockRabbitMqDto> lines = new ArrayList<>();
+        for (int i = 0; i < lineCount; i++){
+            lines.add(new StockRabbitMqDto(1000L + i, i + 1));
+        }
+        return StockOrderEventDto.builder()
+                .orderingId(123456789L)
+                .createdAt(1_700_000_000_000L)
+                .lines(lines)
+                .build();
+    }
+
+//    상품 없이 헤더만 있는 binary 메시지
+    private static byte[] header(int count){
+        return ByteBuffer.allocate(21)
+                .put((byte) 1)
+                .putLong(1L)
+                .putLong(1L)
+                .putInt(count)
+                .array();
+    }
+
+    private static Message message(byte[] body, String contentType){
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(contentType);
+        return new Message(body, properties);
+    }
+}
@@ -0,0 +1,147 @@
+package com.beyond.ordersystem.ordering.service;
+
+import com.beyond.ordersystem.common.dto.CursorPageDto;
+import com.beyond.ordersystem.common.service.OutboxService;
+import com.beyond.ordersystem.member.domain.Member;
+import com.beyond.ordersystem.ordering.domain.OrderDetail;
+import com.beyond.ordersystem.ordering.domain.Ordering;
+import com.beyond.ordersystem.ordering.dto.OrderCreateDto;
+import com.beyond.ordersystem.ordering.dto.OrderListResDto;
+import com.beyond.ordersystem.ordering.dto.OrderSearchDto;
+import com.beyond.ordersystem.product.domain.Product;
+import com.beyond.ordersystem.product.repository.ProductStockJdbcRepository;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 주문 생성/목록 조회가 상품 수, 주문 수와 관계없이 일정한 수의 select만 실행하는지 확인 (N+1 회귀 방지)
+// hibernate StatementInspector로 실행된 sql을 모아서 센다. sequence 조회(next value for)는 insert용이므로 제외한다.
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=" +
+        "com.beyond.ordersystem.ordering.service.OrderingServiceQueryCountTest$SqlRecorder")
+@Import(OrderingService.class)
+class OrderingServiceQueryCountTest {
+
+    private static final String EMAIL = "buyer@test.com";
+
+    @Autowired
+    private OrderingService orderingService;
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @MockitoBean
+    private StockInventoryService stockInventoryService;
+    @MockitoBean
+    private OutboxService outboxService;
+    @MockitoBean
+    private ProductStockJdbcRepository productStockJdbcRepository;
+    @MockitoBean
+    private MyOrderReadModelService myOrderReadModelService;
+
+    @Test
+    @WithMockUser(username = EMAIL)
+    void createLoadsAllProductsWithOneInQuery(){
+        Member member = saveMember();
+        List<Product> products = saveProducts(member, 20);
+        List<OrderCreateDto> orderCreateDtos = new ArrayList<>();
+        for (Product product : products){
+            orderCreateDtos.add(new OrderCreateDto(product.getId(), 1));
+        }
+//        같은 상품이 여러 줄에 있어도 한번만 조회
+        orderCreateDtos.add(new OrderCreateDto(products.get(0).getId(), 1));
+        entityManager.flush();
+        entityManager.clear();
+        SqlRecorder.reset();
+
+        orderingService.create(orderCreateDtos);
+
+        List<String> productSelects = SqlRecorder.selects().stream().filter(sql -> sql.contains(" from product ")).toList();
+        assertEquals(1, productSelects.size());
+        assertTrue(productSelects.get(0).contains(" in ("));
+//        회원 1번 + 상품 1번
+        assertEquals(2, SqlRecorder.selects().size());
+    }
+
+    @Test
+    void findPageRunsFixedNumberOfQueries(){
+        Member member = saveMember();
+        List<Product> products = saveProducts(member, 3);
+        for (int i = 0; i < 30; i++){
+            Ordering ordering = Ordering.builder()
+                    .member(member)
+                    .build();
+            for (Product product : products){
+                ordering.getOrderDetailsList().add(OrderDetail.builder()
+                        .product(product)
+                        .quantity(1)
+                        .ordering(ordering)
+                        .build());
+            }
+            entityManager.persist(ordering);
+        }
+        entityManager.flush();
+        entityManager.clear();
+        SqlRecorder.reset();
+
+        CursorPageDto<OrderListResDto> page = orderingService.findPage(new OrderSearchDto(), null, 30);
+
+        assertEquals(30, page.getContent().size());
+        page.getContent().forEach(dto -> assertEquals(products.size(), dto.getOrderDetails().size()));
+//        주문(+회원) 1번 + 상세(+상품명) 1번
+        assertEquals(2, SqlRecorder.selects().size());
+    }
+
+    private Member saveMember(){
+        return entityManager.persist(Member.builder()
+                .name("buyer")
+                .email(EMAIL)
+                .password("password")
+                .build());
+    }
+
+    private List<Product> saveProducts(Member member, int count){
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < count; i++){
+            products.add(entityManager.persist(Product.builder()
+                    .name("product" + i)
+                    .category("test")
+                    .price(1000)
+                    .stockQuantity(100)
+                    .member(member)
+                    .build()));
+        }
+        return products;
+    }
+
+//    hibernate가 만든 인스턴스에서 모으므로 static으로 보관 (테스트는 한 스레드에서 순서대로 실행)
+    public static class SqlRecorder implements StatementInspector {
+        private static final List<String> STATEMENTS = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql.toLowerCase());
+            return sql;
+        }
+
+        static void reset(){
+            STATEMENTS.clear();
+        }
+
+        static List<String> selects(){
+            return STATEMENTS.stream()
+                    .filter(sql -> sql.startsWith("select") && !sql.contains("next value for"))
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.beyond.ordersystem.ordering.service;
+
+import com.beyond.ordersystem.ordering.dto.StockReservationDto;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 재고 저장소(StockStore) 구현들이 동시 요청에서 같은 결과를 내는지 확인
+// - 초과 판매가 없어야 한다. (성공한 차감 합계 = 초기 재고)
+// - 여러 상품 차감은 all-or-nothing이어야 한다. (끝난 뒤 재고 = 초기 재고 - 성공 후 되돌리지 않은 차감 합계)
+// memory 저장소는 항상 실행하고, redis 저장소는 REDIS_HOST/REDIS_PORT(기본 localhost:6379)에 연결될때만 실행한다. (db 15 사용)
+class StockStoreConcurrencyTest {
+
+    private static final Logger log = LoggerFactory.getLogger(StockStoreConcurrencyTest.class);
+    private static final int THREADS = 8;
+    private static final int REDIS_TEST_DATABASE = 15;
+
+    private static LettuceConnectionFactory redisConnectionFactory;
+    private static RedisTemplate<String, String> redisTemplate;
+    private static Boolean redisAvailable;
+
+//    테스트마다 다른 상품id를 써서 redis에 남은 값과 섞이지 않게 한다.
+    private static final AtomicLong PRODUCT_SEQUENCE = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final List<Long> usedProductIds = new ArrayList<>();
+
+    @AfterEach
+    void cleanUp(){
+        if (redisTemplate != null && !usedProductIds.isEmpty()){
+            redisTemplate.delete(usedProductIds.stream().map(String::valueOf).toList());
+            redisTemplate.opsForHash().delete(StockInventoryService.PENDING_HASH_KEY, usedProductIds.stream().map(String::valueOf).toArray());
+        }
+    }
+
+    @AfterAll
+    static void closeRedis(){
+        if (redisConnectionFactory != null){
+            redisConnectionFactory.destroy();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "redis"})
+    void reserveNeverOversells(String engine) throws Exception {
+        StockStore store = store(engine);
+        int initial = 500;
+        long productId = newProduct(store, initial);
+        AtomicInteger succeeded = new AtomicInteger();
+
+        runConcurrently(() -> {
+            for (int i = 0; i < 100; i++){
+                if (store.reserve(Map.of(productId, 1)).isSuccess()){
+                    succeeded.incrementAndGet();
+                }
+            }
+            return null;
+        });
+
+//        8 x 100 = 800건 시도 중 재고만큼만 성공
+        assertEquals(initial, succeeded.get());
+        assertEquals(0, remain(store, productId));
+        assertEquals(initial, store.getCommittedStockQuantities(List.of(productId)).get(productId).longValue());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"memory", "redis"})
+    void multiLineReserveAndReleaseAreAllOrNothing(String engine) throws Exception {
+        StockStore store = store(engine);
+        int initial = 300;
+        List<Long> productIds = new ArrayList<>();
+        for (int i = 0; i < 4; i++){
+            productIds.add(newProduct(store, initial));
+        }
+//        품절 상품 : 이 상품이 들어간 주문은 절대 성공하면 안 되고, 다른 상품도 차감되면 안 된다.
+        long soldOutId = newProduct(store, 0);
+        Map<Long, AtomicLong> kept = new LinkedHashMap<>();
+        productIds.forEach(id -> kept.put(id, new AtomicLong()));
+        AtomicInteger soldOutSucceeded = new AtomicInteger();
+
+        runConcurrently(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 300; i++){
+                Map<Long, Integer> quantityMap = new LinkedHashMap<>();
+                int lines = 1 + random.nextInt(3);
+                while (quantityMap.size() < lines){
+                    quantityMap.put(productIds.get(random.nextInt(productIds.size())), 1 + random.nextInt(3));
+                }
+                boolean withSoldOut = random.nextInt(5) == 0;
+                if (withSoldOut){
+                    quantityMap.put(soldOutId, 1);
+                }
+                StockReservationDto reservation = store.reserve(quantityMap);
+                if (!reservation.isSuccess()){
+                    assertFalse(reservation.failedProductIds().isEmpty());
+                    continue;
+                }
+                if (withSoldOut){
+                    soldOutSucceeded.incrementAndGet();
+                }
+//                절반은 주문 실패로 보고 되돌린다.
+                if (random.nextBoolean()){
+                    store.release(quantityMap);
+                } else {
+                    quantityMap.forEach((id, quantity) -> kept.get(id).addAndGet(quantity));
+                }
+            }
+            return null;
+        });
+
+        assertEquals(0, soldOutSucceeded.get());
+        assertEquals(0, remain(store, soldOutId));
+        Map<Long, Long> committed = store.getCommittedStockQuantities(productIds);
+        for (Long productId : productIds){
+            long remain = remain(store, productId);
+            assertTrue(remain >= 0);
+            assertEquals(initial - kept.get(productId).get(), remain);
+//            재고 + 반영대기 수량은 차감/되돌림과 관계없이 초기 재고와 같다.
+            assertEquals(initial, committed.get(productId).longValue());
+        }
+    }
+
+//    memory 저장소의 table 확장 중에도 수량 증감이 유실되지 않아야 한다.
+    @Test
+    void counterTableKeepsUpdatesAcrossResize() throws Exception {
+        StockCounterTable table = new StockCounterTable(16);
+        int keys = 4096;
+        runConcurrently(() -> {
+            for (long key = 1; key <= keys; key++){
+                table.getOrCreate(key).incrementAndGet();
+            }
+            return null;
+        });
+        for (long key = 1; key <= keys; key++){
+            assertEquals(THREADS, table.get(key).get());
+        }
+    }
+
+//    같은 부하(상품 64개, 스레드당 차감+되돌림 반복)에서 저장소별 처리량 비교, redis에 연결되지 않으면 memory만 측정한다.
+//    오래 걸리므로 기본 test에서는 빠지고 ./gradlew benchmark 로 실행한다.
+    @Test
+    @Tag("benchmark")
+    void compareThroughput() throws Exception {
+        List<String> engines = new ArrayList<>(List.of("memory"));
+        if (isRedisAvailable()){
+            engines.add("redis");
+        }
+        Map<String, Double> opsPerSecond = new LinkedHashMap<>();
+        for (String engine : engines){
+            StockStore store = store(engine);
+            List<Long> productIds = new ArrayList<>();
+            for (int i = 0; i < 64; i++){
+                productIds.add(newProduct(store, 1_000_000));
+            }
+            int rounds = "memory".equals(engine) ? 50_000 : 2_000;
+            long startedAt = System.nanoTime();
+            runConcurrently(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < rounds; i++){
+                    Map<Long, Integer> quantityMap = new LinkedHashMap<>();
+                    quantityMap.put(productIds.get(random.nextInt(productIds.size())), 1);
+                    quantityMap.put(productIds.get(random.nextInt(productIds.size())), 1);
+                    if (store.reserve(quantityMap).isSuccess()){
+                        store.release(quantityMap);
+                    }
+                }
+                return null;
+            });
+            double seconds = (System.nanoTime() - startedAt) / 1_000_000_000.0;
+            opsPerSecond.put(engine, THREADS * rounds * 2 / seconds);
+            for (Long productId : productIds){
+                assertEquals(1_000_000, remain(store, productId));
+            }
+        }
+        opsPerSecond.forEach((engine, ops) -> log.info("재고 저장소 처리량 {} : {} ops/s (스레드 {})", engine, Math.round(ops), THREADS));
+    }
+
+    private StockStore store(String engine){
+        if ("memory".equals(engine)){
+            return new InMemoryStockStore(16);
+        }
+        Assumptions.assumeTrue(isRedisAvailable(), "redis에 연결할 수 없어 redis 저장소 테스트를 건너뜀");
+        return new RedisStockStore(redisTemplate);
+    }
+
+    private long newProduct(StockStore store, int quantity){
+        long productId = PRODUCT_SEQUENCE.incrementAndGet();
+        usedProductIds.add(productId);
+        store.makeStockQuantities(Map.of(productId, quantity), true, 1);
+        return productId;
+    }
+
+//    재고만 조회 (반영대기 수량 제외)
+    private static long remain(StockStore store, long productId){
+        if (store instanceof InMemoryStockStore memoryStore){
+            return memoryStore.getStockQuantity(productId);
+        }
+        return Long.parseLong(redisTemplate.opsForValue().get(String.valueOf(productId)));
+    }
+
+//    모든 스레드가 동시에 시작하도록 맞춘 뒤 실행하고, 스레드 안의 assert 실패도 전파한다.
+    private static void runConcurrently(Callable<Void> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch ready = new CountDownLatch(THREADS);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++){
+                futures.add(executor.submit(() -> {
+                    ready.countDown();
+                    start.await();
+                    return task.call();
+                }));
+            }
+            ready.await();
+            start.countDown();
+            for (Future<Void> future : futures){
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static synchronized boolean isRedisAvailable(){
+        if (redisAvailable != null){
+            return redisAvailable;
+        }
+        String host = System.getenv().getOrDefault("REDIS_HOST", "localhost");
+        int port = Integer.parseInt(System.getenv().getOrDefault("REDIS_PORT", "6379"));
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(host, port);
+        configuration.setDatabase(REDIS_TEST_DATABASE);
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        try {
+            try (var connection = connectionFactory.getConnection()){
+                connection.ping();
+            }
+        } catch (Exception e){
+            connectionFactory.destroy();
+            redisAvailable = false;
+            return false;
+        }
+        RedisTemplate<String, String> template = new RedisTemplate<>();
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new StringRedisSerializer());
+        template.setHashKeySerializer(new StringRedisSerializer());
+        template.setHashValueSerializer(new StringRedisSerializer());
+        template.setConnectionFactory(connectionFactory);
+        template.afterPropertiesSet();
+        redisConnectionFactory = connectionFactory;
+        redisTemplate = template;
+        redisAvailable = true;
+        return true;
+    }
+}